@@ -0,0 +1,101 @@
+package benchmarks;
+
+import common.Page;
+import common.Pages;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*  The two inputs every benchmark runs on: "enwiki" is the sample dump (-Dcorpus.sample,
+    enwiki.xml in the working directory by default) and "synthetic" is a generated dump
+    of -Dcorpus.pages pages whose words follow a Zipf distribution, written once per
+    forked JVM to a temporary file.
+*/
+final class Corpus {
+
+    static final String SYNTHETIC = "synthetic";
+    static final String ENWIKI = "enwiki";
+
+    private static final int VOCABULARY = 50_000;
+    private static final int WORDS_PER_PAGE = 2_000;
+    private static Path synthetic;
+
+    private Corpus() {
+    }
+
+    static synchronized Path file(String corpus) {
+        if (ENWIKI.equals(corpus)) {
+            return Path.of(System.getProperty("corpus.sample", "enwiki.xml"));
+        }
+        if (synthetic == null) {
+            synthetic = generate(Integer.getInteger("corpus.pages", 2_000));
+        }
+        return synthetic;
+    }
+
+    static List<Page> pages(String corpus) {
+        List<Page> pages = new ArrayList<>();
+        for (Page page : new Pages(Integer.MAX_VALUE, file(corpus).toString())) {
+            if (page == null)
+                break;
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    static List<String> texts(String corpus) {
+        List<String> texts = new ArrayList<>();
+        for (Page page : pages(corpus)) {
+            texts.add(page.getText());
+        }
+        return texts;
+    }
+
+    private static Path generate(int pageCount) {
+        Random random = new Random(42);
+        String[] vocabulary = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 2 + random.nextInt(9);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            vocabulary[i] = i % 7 == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word.toString();
+        }
+        // Zipf(1): rank r is drawn with probability proportional to 1 / r
+        double[] cumulative = new double[VOCABULARY];
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        try {
+            Path file = Files.createTempFile("synthetic-", ".xml");
+            file.toFile().deleteOnExit();
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                out.write("<mediawiki>\n");
+                for (int p = 0; p < pageCount; p++) {
+                    out.write("<page>\n<title>Page " + p + "</title>\n<revision><text xml:space=\"preserve\">");
+                    for (int w = 0; w < WORDS_PER_PAGE; w++) {
+                        int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                        out.write(vocabulary[rank < 0 ? -rank - 1 : rank]);
+                        out.write(w % 17 == 16 ? ". " : " ");
+                    }
+                    out.write("</text></revision>\n</page>\n");
+                }
+                out.write("</mediawiki>\n");
+            }
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import common.Page;
+import common.WordCountRecursiveTask;
+import common.WordCounter;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Counts the whole parsed corpus with WordCountRecursiveTask for several leaf sizes (chars of text per leaf). */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ForkJoinBenchmark {
+
+    @Param({Corpus.SYNTHETIC, Corpus.ENWIKI})
+    public String corpus;
+
+    @Param({"16384", "65536", "262144", "1048576"})
+    public int threshold;
+
+    @Param({"0"})
+    public int parallelism; // 0: one worker per core
+
+    private List<Page> pages;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        pages = Corpus.pages(corpus);
+        pool = parallelism > 0 ? new ForkJoinPool(parallelism) : new ForkJoinPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public WordCounter count() {
+        return pool.invoke(new WordCountRecursiveTask(pages, false, null, threshold));
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import common.MapReduce;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*  MapReduce.map() of one page per operation into a shared instance, so running with
+    -t 1,2,4... shows how the shared ConcurrentHashMap and the local counters scale.
+    Each thread walks the corpus from its own offset.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MapReduceBenchmark {
+
+    @Param({Corpus.SYNTHETIC, Corpus.ENWIKI})
+    public String corpus;
+
+    @Param({"false", "true"})
+    public boolean localCounts;
+
+    private List<String> texts;
+    private MapReduce mapReduce;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private static int nextStart;
+        private int next;
+
+        @Setup
+        public void setup() {
+            synchronized (Cursor.class) {
+                next = nextStart;
+                nextStart += 7919;
+            }
+        }
+    }
+
+    @Setup
+    public void setup() {
+        texts = Corpus.texts(corpus);
+    }
+
+    // A fresh instance per iteration keeps the shared map and local counters from growing across them
+    @Setup(Level.Iteration)
+    public void newMapReduce() {
+        mapReduce = new MapReduce(false, localCounts);
+    }
+
+    @Benchmark
+    public void map(Cursor cursor) {
+        mapReduce.map(texts.get(cursor.next++ % texts.size()));
+    }
+}
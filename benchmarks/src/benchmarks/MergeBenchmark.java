@@ -0,0 +1,106 @@
+package benchmarks;
+
+import common.ByteTokenizer;
+import common.ByteWordCounter;
+import common.Page;
+import common.Tokenizer;
+import common.WordCounter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*  The reduce step on its own: the corpus is counted into `parts` partial results up front
+    and one operation folds all of them into an empty total, with the map merge the
+    engines started from and with the counters that replaced it.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MergeBenchmark {
+
+    @Param({Corpus.SYNTHETIC, Corpus.ENWIKI})
+    public String corpus;
+
+    @Param({"16"})
+    public int parts;
+
+    private final List<WordCounter> counters = new ArrayList<>();
+    private final List<Map<String, Integer>> maps = new ArrayList<>();
+    private final List<ByteWordCounter> byteCounters = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        List<Page> pages = Corpus.pages(corpus);
+        Tokenizer tokenizer = new Tokenizer();
+        ByteTokenizer byteTokenizer = new ByteTokenizer();
+        for (int part = 0; part < parts; part++) {
+            WordCounter counter = new WordCounter();
+            ByteWordCounter byteCounter = new ByteWordCounter();
+            for (int i = part; i < pages.size(); i += parts) {
+                String text = pages.get(i).getText();
+                tokenizer.forEachWord(text, counter::add);
+                byteTokenizer.forEachWord(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), byteCounter::add);
+            }
+            counters.add(counter);
+            maps.add(counter.toMap());
+            byteCounters.add(byteCounter);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Integer> hashMapMerge() {
+        Map<String, Integer> total = new HashMap<>();
+        for (Map<String, Integer> map : maps) {
+            map.forEach((word, count) -> total.merge(word, count, Integer::sum));
+        }
+        return total;
+    }
+
+    @Benchmark
+    public Map<String, Integer> concurrentHashMapMerge() {
+        Map<String, Integer> total = new ConcurrentHashMap<>();
+        for (Map<String, Integer> map : maps) {
+            map.forEach((word, count) -> total.merge(word, count, Integer::sum));
+        }
+        return total;
+    }
+
+    @Benchmark
+    public WordCounter wordCounterAddAll() {
+        WordCounter total = new WordCounter();
+        for (WordCounter counter : counters) {
+            total.addAll(counter);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public ByteWordCounter byteWordCounterAddAll() {
+        ByteWordCounter total = new ByteWordCounter();
+        for (ByteWordCounter counter : byteCounters) {
+            total.addAll(counter);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,91 @@
+package benchmarks;
+
+import common.BytePage;
+import common.BytePages;
+import common.Page;
+import common.Pages;
+import common.ShardedPages;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*  One operation parses the whole corpus file. The "bytes" secondary result counts the
+    input bytes consumed, so with the default throughput mode it reads directly as
+    bytes per second (divide by 1e6 for MB/s).
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class PagesBenchmark {
+
+    @Param({Corpus.SYNTHETIC, Corpus.ENWIKI})
+    public String corpus;
+
+    @Param({"2"})
+    public int shards;
+
+    private String fileName;
+    private long fileSize;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Input {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        fileName = Corpus.file(corpus).toString();
+        fileSize = Files.size(Corpus.file(corpus));
+    }
+
+    @Benchmark
+    public void pages(Input input, Blackhole blackhole) {
+        for (Page page : new Pages(Integer.MAX_VALUE, fileName)) {
+            if (page == null)
+                break;
+            blackhole.consume(page);
+        }
+        input.bytes += fileSize;
+    }
+
+    @Benchmark
+    public void shardedPages(Input input, Blackhole blackhole) {
+        for (Page page : new ShardedPages(Integer.MAX_VALUE, fileName, shards)) {
+            blackhole.consume(page);
+        }
+        input.bytes += fileSize;
+    }
+
+    @Benchmark
+    public void bytePages(Input input, Blackhole blackhole) {
+        for (BytePage page : new BytePages(Integer.MAX_VALUE, fileName)) {
+            blackhole.consume(page);
+        }
+        input.bytes += fileSize;
+    }
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import common.ByteTokenizer;
+import common.Tokenizer;
+import common.Words;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/* One operation tokenizes every page text of the corpus, already parsed into memory. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TokenizerBenchmark {
+
+    @Param({Corpus.SYNTHETIC, Corpus.ENWIKI})
+    public String corpus;
+
+    private List<String> texts;
+    private List<ByteBuffer> utf8Texts;
+    private final Tokenizer tokenizer = new Tokenizer();
+    private final Tokenizer compatibleTokenizer = new Tokenizer(true);
+    private final ByteTokenizer byteTokenizer = new ByteTokenizer();
+
+    @Setup
+    public void setup() {
+        texts = Corpus.texts(corpus);
+        utf8Texts = new ArrayList<>();
+        for (String text : texts) {
+            utf8Texts.add(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    // What the engines did before Tokenizer: one String per BreakIterator segment
+    @Benchmark
+    public void words(Blackhole blackhole) {
+        for (String text : texts) {
+            for (String word : new Words(text)) {
+                if (word.length() > 1 || word.equals("a") || word.equals("I"))
+                    blackhole.consume(word);
+            }
+        }
+    }
+
+    @Benchmark
+    public void tokenizer(Blackhole blackhole) {
+        for (String text : texts) {
+            tokenizer.forEachWord(text, (chars, offset, length) -> blackhole.consume(length));
+        }
+    }
+
+    @Benchmark
+    public void tokenizerCompatible(Blackhole blackhole) {
+        for (String text : texts) {
+            compatibleTokenizer.forEachWord(text, (chars, offset, length) -> blackhole.consume(length));
+        }
+    }
+
+    @Benchmark
+    public void byteTokenizer(Blackhole blackhole) {
+        for (ByteBuffer text : utf8Texts) {
+            byteTokenizer.forEachWord(text, (bytes, offset, length) -> blackhole.consume(length));
+        }
+    }
+}
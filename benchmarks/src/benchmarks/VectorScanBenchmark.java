@@ -0,0 +1,110 @@
+package benchmarks;
+
+import common.ByteScanner;
+import common.ByteTokenizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*  ByteScanner with and without the Vector API over the raw corpus file (markup included),
+    repeated to BLOCK bytes. As in PagesBenchmark the "bytes" secondary result reads as
+    bytes per second; divided by the clock rate it gives bytes per cycle, or run with
+    -prof perfnorm for cycles per operation directly.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class VectorScanBenchmark {
+
+    private static final int BLOCK = 1 << 20;
+    private static final byte[] PAGE_OPEN = "<page".getBytes(StandardCharsets.US_ASCII);
+
+    @Param({Corpus.SYNTHETIC, Corpus.ENWIKI})
+    public String corpus;
+
+    @Param({"scalar", "vector"})
+    public String scan;
+
+    private final byte[] bytes = new byte[BLOCK];
+    private final ByteScanner scanner = new ByteScanner();
+    private final ByteTokenizer tokenizer = new ByteTokenizer();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Input {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        ByteScanner.setVectorized(scan.equals("vector"));
+        if (ByteScanner.vectorized() != scan.equals("vector"))
+            throw new IllegalStateException("Vector API not available: " + ByteScanner.describe());
+        byte[] file = Files.readAllBytes(Corpus.file(corpus));
+        for (int i = 0; i < BLOCK; i += file.length) {
+            System.arraycopy(file, 0, bytes, i, Math.min(file.length, BLOCK - i));
+        }
+    }
+
+    // What BytePages does between pages: look for the next "<page" tag
+    @Benchmark
+    public int tags(Input input) {
+        int found = 0;
+        int i = 0;
+        while ((i = ByteScanner.indexOf(bytes, PAGE_OPEN, i, BLOCK)) >= 0) {
+            found++;
+            i += PAGE_OPEN.length;
+        }
+        input.bytes += BLOCK;
+        return found;
+    }
+
+    // Only the letter/non-letter transitions, alternating between the two kinds of run
+    @Benchmark
+    public int transitions(Input input) {
+        scanner.reset();
+        int found = 0;
+        int i = 0;
+        while (i < BLOCK) {
+            int next = scanner.skipSeparators(bytes, i, BLOCK);
+            next = scanner.skipWordBytes(bytes, next, BLOCK);
+            // A non-ASCII byte or '&' stops both runs; ByteTokenizer decodes those one at a time
+            i = next > i ? next : i + 1;
+            found++;
+        }
+        input.bytes += BLOCK;
+        return found;
+    }
+
+    @Benchmark
+    public void tokenize(Input input, Blackhole blackhole) {
+        tokenizer.forEachWord(ByteBuffer.wrap(bytes), (word, offset, length) -> blackhole.consume(length));
+        input.bytes += BLOCK;
+    }
+}
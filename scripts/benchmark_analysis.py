@@ -43,6 +43,36 @@ def fix_csv_format(csv_path):
     
     return fixed_csv_path
 
+STAGE_COLUMNS = ['ParseTime', 'CountTime', 'MergeTime', 'ReportTime']
+VARIANT_FLAGS = ['virtual', 'ring', 'local-counts', 'streaming', 'bytes']
+
+def load_metrics_csv(csv_path):
+    """Load the rows written by the engines' --metrics option into the columns used below"""
+    metrics = pd.read_csv(csv_path)
+    
+    # Label alternative modes like benchmarking.bat does, e.g. "MultithreadedThreadPools-virtual"
+    def implementation(row):
+        flags = str(row['args']).split()
+        variants = [flag for flag in VARIANT_FLAGS if f'--{flag}' in flags]
+        return '-'.join([row['engine']] + variants)
+    
+    df = pd.DataFrame({
+        'Implementation': metrics.apply(implementation, axis=1),
+        'Threads': metrics['threads'],
+        'FileSize': metrics['pages'],
+        'ElapsedTime': metrics['wall_ms'],
+        'MemoryUsage': metrics['allocated_bytes'],
+        'CPUTime': metrics['cpu_ms'] / 1000,  # seconds, like the scraped "Usage Cpu Time"
+        'GCCount': metrics['gc_count'],
+        'GCPause': metrics['gc_pause_ms'],
+        'ParseTime': metrics['parse_ms'],
+        'CountTime': metrics['count_ms'],
+        'MergeTime': metrics['merge_ms'],
+        'ReportTime': metrics['report_ms'],
+    })
+    df['RunNumber'] = df.groupby(['Implementation', 'Threads', 'FileSize']).cumcount() + 1
+    return df
+
 def main():
     # Create output directories for charts and tables
     output_dir = pathlib.Path('output')
@@ -54,21 +84,27 @@ def main():
         directory.mkdir(exist_ok=True)
         print(f"Created directory: {directory}")
         
-    # Fix the CSV format first
+    # Prefer the machine-readable metrics; fall back to the CSV scraped from stdout
+    metrics_path = 'benchmark_metrics.csv'
     csv_path = 'benchmark_results.csv'
-    if os.path.exists(csv_path):
+    if os.path.exists(metrics_path):
+        try:
+            df = load_metrics_csv(metrics_path)
+            print(f"Metrics CSV loaded successfully: {metrics_path}")
+        except Exception as e:
+            print(f"Error loading metrics CSV: {e}")
+            return
+    elif os.path.exists(csv_path):
         fixed_csv_path = fix_csv_format(csv_path)
         print(f"Created fixed CSV file: {fixed_csv_path}")
+        try:
+            df = pd.read_csv(fixed_csv_path)
+            print("CSV loaded successfully")
+        except Exception as e:
+            print(f"Error loading CSV: {e}")
+            return
     else:
-        print(f"Warning: CSV file {csv_path} not found!")
-        return
-    
-    # Load benchmark results from the fixed CSV
-    try:
-        df = pd.read_csv(fixed_csv_path)
-        print("CSV loaded successfully")
-    except Exception as e:
-        print(f"Error loading CSV: {e}")
+        print(f"Warning: neither {metrics_path} nor {csv_path} found!")
         return
     
     # Make sure column names are stripped of spaces
@@ -92,11 +128,15 @@ def main():
         return
     
     # Group by implementation, threads, filesize and calculate mean and std across runs
-    grouped = df_clean.groupby(['Implementation', 'Threads', 'FileSize']).agg({
+    aggregations = {
         'ElapsedTime': ['mean', 'std'],
         'MemoryUsage': ['mean', 'std'],
         'CPUTime': ['mean', 'std']
-    }).reset_index()
+    }
+    for col in STAGE_COLUMNS + ['GCCount', 'GCPause']:
+        if col in df_clean.columns:
+            aggregations[col] = ['mean']
+    grouped = df_clean.groupby(['Implementation', 'Threads', 'FileSize']).agg(aggregations).reset_index()
     
     # Flatten the column hierarchy
     grouped.columns = ['_'.join(col).strip('_') for col in grouped.columns.values]
@@ -120,6 +160,11 @@ def main():
     # Generate efficiency charts
     plot_efficiency_charts(grouped)
     
+    # Generate stage breakdown and GC charts (only available from the metrics CSV)
+    if 'ParseTime_mean' in grouped.columns:
+        plot_stage_breakdown(grouped)
+        plot_combined_scalability_charts(grouped, 'GCPause_mean', 'GC Pause Time (ms)', 'GCPause')
+    
     # Generate tables
     generate_tables(grouped)
     
@@ -162,6 +207,25 @@ def plot_combined_scalability_charts(df, metric, ylabel, output_filename_prefix)
     plt.close()  # Close the figure to free up memory
     print(f"Saved {filepath}")
     
+def plot_stage_breakdown(df):
+    """Stacked bars of the per-stage time of every implementation, at its largest thread count and file size"""
+    largest = df[df['FileSize'] == df['FileSize'].max()]
+    largest = largest.loc[largest.groupby('Implementation')['Threads'].idxmax()]
+    stages = [f'{col}_mean' for col in STAGE_COLUMNS]
+    
+    ax = largest.set_index('Implementation')[stages].plot(kind='bar', stacked=True, figsize=(12, 6))
+    ax.set_ylabel('Time summed over threads (ms)')
+    ax.set_title(f'Stage Breakdown ({largest["FileSize"].iloc[0]} pages, highest thread count)')
+    ax.legend([col.replace('Time', '') for col in STAGE_COLUMNS], title='Stage')
+    plt.xticks(rotation=30, ha='right')
+    plt.grid(True, axis='y')
+    plt.tight_layout()
+    
+    filepath = pathlib.Path('output/charts') / 'stage_breakdown.png'
+    plt.savefig(filepath)
+    plt.close()
+    print(f"Saved {filepath}")
+
 def plot_speedup_charts(df):
     plt.figure(figsize=(12, 6))
     
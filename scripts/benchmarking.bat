@@ -4,10 +4,15 @@ setlocal enabledelayedexpansion
 REM Set output CSV file
 set "OUTPUT_CSV=benchmark_results.csv"
 echo Implementation,Threads,FileSize,RunNumber,ElapsedTime,MemoryUsage,CPUTime > %OUTPUT_CSV%
+REM Every run also appends its all-thread metrics (CPU, allocation, GC, stages) here; benchmark_analysis.py prefers this file
+set "METRICS_CSV=benchmark_metrics.csv"
+if exist %METRICS_CSV% del %METRICS_CSV%
 
 REM Define parameters to test
 set "PARALLEL_IMPLEMENTATIONS=Multithreaded MultithreadedThreadPools ForkJoinSolution CompletableFutureSolution"
 set "SEQUENTIAL_IMPLEMENTATION=Sequential"
+REM Alternative modes as Implementation:flag, run with --flag and labelled Implementation-flag
+set "VARIANTS=MultithreadedThreadPools:virtual CompletableFutureSolution:virtual Multithreaded:virtual Multithreaded:ring"
 set "THREAD_COUNTS=50 100 500"
 set "FILE_SIZES=10000 50000 100000"
 set "REPEAT_COUNT=3"
@@ -25,7 +30,7 @@ for %%f in (%FILE_SIZES%) do (
         REM Run the implementation and capture output
         set "OUTPUT_FILE=%TEMP%\%SEQ_IMPL%_1_%%f_%%r_output.txt"
         
-        java -cp %CLASSPATH% %SEQ_IMPL% --pages %%f > !OUTPUT_FILE!
+        java -cp %CLASSPATH% %SEQ_IMPL% --pages %%f --metrics %METRICS_CSV% > !OUTPUT_FILE!
         
         REM Extract metrics from output
         set "elapsed="
@@ -81,7 +86,7 @@ for %%i in (%PARALLEL_IMPLEMENTATIONS%) do (
                 REM Run the implementation and capture output
                 set "OUTPUT_FILE=%TEMP%\%%i_%%t_%%f_%%r_output.txt"
                 
-                java -cp %CLASSPATH% %%i --threads %%t --pages %%f > !OUTPUT_FILE!
+                java -cp %CLASSPATH% %%i --threads %%t --pages %%f --metrics %METRICS_CSV% > !OUTPUT_FILE!
                 
                 REM Extract metrics from output
                 set "elapsed="
@@ -129,4 +134,48 @@ for %%i in (%PARALLEL_IMPLEMENTATIONS%) do (
     )
 )
 
+REM Run the alternative modes (virtual threads, ring buffer handoff)
+for %%v in (%VARIANTS%) do (
+    for /f "tokens=1,2 delims=:" %%m in ("%%v") do (
+        for %%t in (%THREAD_COUNTS%) do (
+            for %%f in (%FILE_SIZES%) do (
+                for /L %%r in (1,1,%REPEAT_COUNT%) do (
+                    echo Running %%m --%%n with %%t threads, %%f pages, run %%r
+                    
+                    set "OUTPUT_FILE=%TEMP%\%%m-%%n_%%t_%%f_%%r_output.txt"
+                    
+                    java -cp %CLASSPATH% %%m --%%n --threads %%t --pages %%f --metrics %METRICS_CSV% > !OUTPUT_FILE!
+                    
+                    set "elapsed="
+                    set "memory="
+                    set "cpu="
+
+                    for /f "tokens=1,* delims=:" %%a in ('findstr /B /C:"Elapsed time:" !OUTPUT_FILE!') do (
+                        set "value_part=%%b"
+                        set "elapsed=!value_part:ms=!"
+                        set "elapsed=!elapsed: =!" 
+                    )
+                    for /f "tokens=1,* delims=:" %%a in ('findstr /B /C:"Usage Memory:" !OUTPUT_FILE!') do (
+                        set "value_part=%%b"
+                        set "memory=!value_part: bytes=!" 
+                        set "memory=!memory:bytes=!"   
+                        set "memory=!memory: =!"    
+                    )
+                    for /f "tokens=4" %%c in ('findstr /B /C:"Usage Cpu Time" !OUTPUT_FILE!') do (
+                        set "cpu=%%c"
+                        set "cpu=!cpu:seconds=!" 
+                        set "cpu=!cpu: =!" 
+                    )
+                    
+                    if "!elapsed!"=="" set "elapsed=0"
+                    if "!memory!"=="" set "memory=0"
+                    if "!cpu!"=="" set "cpu=0"
+                    
+                    echo %%m-%%n,%%t,%%f,%%r,!elapsed!,!memory!,!cpu! >> %OUTPUT_CSV%
+                )
+            )
+        )
+    )
+)
+
 echo All tests completed. Results saved to %OUTPUT_CSV%
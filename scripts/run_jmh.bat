@@ -0,0 +1,29 @@
+@echo off
+setlocal enabledelayedexpansion
+
+REM Runs the JMH suite of the benchmarks module with allocation profiling (-prof gc).
+REM Build the project in IntelliJ first (annotation processing generates the benchmark list).
+REM Any arguments are passed to JMH, e.g.  run_jmh.bat TokenizerBenchmark -f 1
+REM Without arguments every benchmark runs, and MapReduceBenchmark once per thread count.
+
+cd /d "%~dp0\.."
+set "PROJECT_ROOT=%CD%"
+set "M2=%USERPROFILE%\.m2\repository"
+set "CLASSPATH=%PROJECT_ROOT%\out\production\benchmarks;%PROJECT_ROOT%\out\production\sismd"
+set "CLASSPATH=%CLASSPATH%;%M2%\org\openjdk\jmh\jmh-core\1.37\jmh-core-1.37.jar"
+set "CLASSPATH=%CLASSPATH%;%M2%\net\sf\jopt-simple\jopt-simple\5.0.4\jopt-simple-5.0.4.jar"
+set "CLASSPATH=%CLASSPATH%;%M2%\org\apache\commons\commons-math3\3.6.1\commons-math3-3.6.1.jar"
+set "THREAD_COUNTS=1 2 4 8"
+set "RESULTS_DIR=%~dp0output\jmh"
+if not exist "%RESULTS_DIR%" mkdir "%RESULTS_DIR%"
+
+if not "%~1"=="" (
+    java -cp "%CLASSPATH%" org.openjdk.jmh.Main -prof gc -rf csv -rff "%RESULTS_DIR%\jmh_results.csv" %*
+    goto :eof
+)
+
+java -cp "%CLASSPATH%" org.openjdk.jmh.Main -prof gc -e MapReduceBenchmark -rf csv -rff "%RESULTS_DIR%\jmh_results.csv"
+for %%t in (%THREAD_COUNTS%) do (
+    echo Running MapReduceBenchmark with %%t threads
+    java -cp "%CLASSPATH%" org.openjdk.jmh.Main MapReduceBenchmark -t %%t -prof gc -rf csv -rff "%RESULTS_DIR%\jmh_mapreduce_%%t.csv"
+)
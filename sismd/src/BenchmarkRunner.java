@@ -0,0 +1,295 @@
+import common.ForkedBenchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*  What benchmarking.bat and run_gc_tests.bat do, on any OS: runs every engine x threads x
+    pages x collector x heap combination in a fresh JVM and writes the benchmarking.bat CSV,
+    with the collector, heap, GC activity, speedup and efficiency as extra columns. Speedup
+    is against the median Sequential time for the same pages, collector and heap, so keep
+    Sequential in --engines to get it.
+
+    --warmup runs are thrown away: within a new JVM there is nothing to warm, but they bring
+    the dump into the page cache. An engine written as Engine:flag runs with --flag and is
+    labelled Engine-flag, as in benchmarking.bat.
+
+    With --baseline, the medians are compared to a CSV from an earlier version (for example
+    one run with --cp pointing at its classes) and the exit status is 1 when any combination
+    got slower by more than --tolerance percent, or when a run failed.
+*/
+public class BenchmarkRunner {
+    static final String DEFAULT_FILE_NAME = "enwiki.xml";
+    static final String DEFAULT_OUTPUT_FILE = "benchmark_results.csv";
+    static final String DEFAULT_ENGINES = "Sequential,Multithreaded,MultithreadedThreadPools,ForkJoinSolution,CompletableFutureSolution";
+    static final String DEFAULT_THREADS = "50,100,500";
+    static final String DEFAULT_PAGES = "10000,50000,100000";
+    static final String DEFAULT_COLLECTORS = "G1";
+    static final String DEFAULT_HEAPS = "2g";
+    static final int DEFAULT_WARMUP = 1;
+    static final int DEFAULT_RUNS = 3;
+    static final int DEFAULT_TIMEOUT_SECONDS = 600;
+    static final double DEFAULT_TOLERANCE = 10;
+    static final String SEQUENTIAL = "Sequential";
+    static final String CSV_HEADER = "Implementation,Threads,FileSize,RunNumber,ElapsedTime,MemoryUsage,CPUTime,"
+            + "GC,Heap,GCCount,GCPause,Speedup,Efficiency";
+
+    // One measured run; the key leaves out the run number
+    static class Run {
+        final String implementation;
+        final int threads;
+        final int pages;
+        final String collector;
+        final String heap;
+        final int number;
+        final ForkedBenchmark.Result result;
+
+        Run(String implementation, int threads, int pages, String collector, String heap, int number, ForkedBenchmark.Result result) {
+            this.implementation = implementation;
+            this.threads = threads;
+            this.pages = pages;
+            this.collector = collector;
+            this.heap = heap;
+            this.number = number;
+            this.result = result;
+        }
+
+        String key() {
+            return BenchmarkRunner.key(implementation, threads, pages, collector, heap);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String fileName = DEFAULT_FILE_NAME;
+        String outputFile = DEFAULT_OUTPUT_FILE;
+        String metricsFile = null;
+        String baselineFile = null;
+        List<String> engines = list(DEFAULT_ENGINES);
+        List<String> threadCounts = list(DEFAULT_THREADS);
+        List<String> pageCounts = list(DEFAULT_PAGES);
+        List<String> collectors = list(DEFAULT_COLLECTORS);
+        List<String> heaps = list(DEFAULT_HEAPS);
+        int warmup = DEFAULT_WARMUP;
+        int runs = DEFAULT_RUNS;
+        int timeout = DEFAULT_TIMEOUT_SECONDS;
+        double tolerance = DEFAULT_TOLERANCE;
+        String java = ProcessHandle.current().info().command().orElse("java");
+        String classPath = System.getProperty("java.class.path");
+        List<String> jvmArgs = new ArrayList<>();
+        // Forked engines get the Vector API when this JVM has it
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+            jvmArgs.addAll(List.of("--add-modules", "jdk.incubator.vector"));
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--file") && i + 1 < args.length) {
+                fileName = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--out") && i + 1 < args.length) {
+                outputFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--baseline") && i + 1 < args.length) {
+                baselineFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--engines") && i + 1 < args.length) {
+                engines = list(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threadCounts = list(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--pages") && i + 1 < args.length) {
+                pageCounts = list(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--gc") && i + 1 < args.length) {
+                collectors = list(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--heap") && i + 1 < args.length) {
+                heaps = list(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--warmup") && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--runs") && i + 1 < args.length) {
+                runs = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--timeout") && i + 1 < args.length) {
+                timeout = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--tolerance") && i + 1 < args.length) {
+                tolerance = Double.parseDouble(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--java") && i + 1 < args.length) {
+                java = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--cp") && i + 1 < args.length) {
+                classPath = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--jvm-arg") && i + 1 < args.length) {
+                jvmArgs.add(args[i + 1]);
+                i++; // Consume value
+            }
+        }
+        for (String collector : collectors) {
+            if (!ForkedBenchmark.COLLECTORS.contains(collector)) {
+                System.out.println("Unknown collector: " + collector + ", expected one of " + ForkedBenchmark.COLLECTORS);
+                System.exit(2);
+            }
+        }
+
+        ForkedBenchmark benchmark = new ForkedBenchmark(java, classPath, jvmArgs, fileName, timeout);
+        List<Run> measured = new ArrayList<>();
+        int failed = 0;
+        for (String collector : collectors) {
+            for (String heap : heaps) {
+                for (String pageCount : pageCounts) {
+                    int pages = Integer.parseInt(pageCount);
+                    for (String engine : engines) {
+                        String[] parts = engine.split(":");
+                        List<String> flags = new ArrayList<>();
+                        for (int f = 1; f < parts.length; f++) {
+                            flags.add("--" + parts[f]);
+                        }
+                        String implementation = String.join("-", parts);
+                        // Sequential has no --threads and is run once, as 1 thread
+                        List<String> threadsFor = parts[0].equals(SEQUENTIAL) ? List.of("1") : threadCounts;
+                        for (String threadCount : threadsFor) {
+                            int threads = Integer.parseInt(threadCount);
+                            int forkedThreads = parts[0].equals(SEQUENTIAL) ? 0 : threads;
+                            for (int r = 1 - warmup; r <= runs; r++) {
+                                System.out.println("Running " + implementation + " with " + threads + " threads, " + pages
+                                        + " pages, " + collector + " " + heap + (r < 1 ? ", warmup" : ", run " + r));
+                                try {
+                                    ForkedBenchmark.Result result = benchmark.run(parts[0], flags, forkedThreads, pages, collector, heap);
+                                    if (r < 1)
+                                        continue;
+                                    measured.add(new Run(implementation, threads, pages, collector, heap, r, result));
+                                    if (metricsFile != null)
+                                        appendMetrics(metricsFile, result);
+                                } catch (IOException e) {
+                                    System.out.println("Run failed: " + e.getMessage());
+                                    failed++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<String, Double> medians = medians(measured);
+        writeResults(outputFile, measured, medians);
+        System.out.println("Results saved to " + outputFile + " (" + measured.size() + " runs, " + failed + " failed)");
+
+        boolean regressed = false;
+        if (baselineFile != null)
+            regressed = compare(baselineFile, medians, tolerance);
+        if (failed > 0 || regressed)
+            System.exit(1);
+    }
+
+    static String key(String implementation, int threads, int pages, String collector, String heap) {
+        return implementation + "," + threads + "," + pages + "," + collector + "," + heap;
+    }
+
+    private static List<String> list(String values) {
+        return Arrays.asList(values.split(","));
+    }
+
+    // Median elapsed milliseconds per combination, in the order they were run
+    private static Map<String, Double> medians(List<Run> measured) {
+        Map<String, List<Double>> times = new LinkedHashMap<>();
+        for (Run run : measured) {
+            times.computeIfAbsent(run.key(), k -> new ArrayList<>()).add((double) run.result.wallMs);
+        }
+        return medianOf(times);
+    }
+
+    private static Map<String, Double> medianOf(Map<String, List<Double>> times) {
+        Map<String, Double> medians = new LinkedHashMap<>();
+        times.forEach((key, values) -> {
+            double[] sorted = values.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+            int mid = sorted.length / 2;
+            medians.put(key, sorted.length % 2 == 1 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2);
+        });
+        return medians;
+    }
+
+    private static void writeResults(String fileName, List<Run> measured, Map<String, Double> medians) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName))) {
+            out.println(CSV_HEADER);
+            for (Run run : measured) {
+                Double sequential = medians.get(key(SEQUENTIAL, 1, run.pages, run.collector, run.heap));
+                String speedup = "";
+                String efficiency = "";
+                if (sequential != null && run.result.wallMs > 0) {
+                    double value = sequential / run.result.wallMs;
+                    speedup = String.format(Locale.US, "%.3f", value);
+                    efficiency = String.format(Locale.US, "%.3f", value / run.threads);
+                }
+                out.println(String.format(Locale.US, "%s,%d,%d,%d,%d,%d,%.3f,%s,%s,%d,%d,%s,%s",
+                        run.implementation, run.threads, run.pages, run.number, run.result.wallMs,
+                        run.result.allocatedBytes, run.result.cpuMs / 1000, run.collector, run.heap,
+                        run.result.gcCount, run.result.gcPauseMs, speedup, efficiency));
+            }
+        }
+    }
+
+    // Keeps the engines' own rows, so benchmark_analysis.py can read them as benchmark_metrics.csv
+    private static void appendMetrics(String fileName, ForkedBenchmark.Result result) throws IOException {
+        Path path = Path.of(fileName);
+        boolean header = !Files.exists(path) || path.toFile().length() == 0;
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName, true))) {
+            if (header)
+                out.println(result.header);
+            out.println(result.row);
+        }
+    }
+
+    /* Prints every combination found in both runs with the change in throughput (pages per
+       second at the median time); true when one lost more than tolerance percent. A baseline
+       without the GC and Heap columns, as benchmarking.bat writes, matches any collector and heap. */
+    private static boolean compare(String baselineFile, Map<String, Double> medians, double tolerance) throws IOException {
+        List<String> lines = Files.readAllLines(Path.of(baselineFile), StandardCharsets.UTF_8);
+        Map<String, List<Double>> times = new LinkedHashMap<>();
+        boolean perCollector = lines.get(0).contains(",GC,");
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank())
+                continue;
+            Map<String, String> columns = ForkedBenchmark.columns(lines.get(0), line);
+            String key = key(columns.get("Implementation"), Integer.parseInt(columns.get("Threads")),
+                    Integer.parseInt(columns.get("FileSize")), columns.getOrDefault("GC", ""), columns.getOrDefault("Heap", ""));
+            times.computeIfAbsent(key, k -> new ArrayList<>()).add(Double.parseDouble(columns.get("ElapsedTime")));
+        }
+        Map<String, Double> before = medianOf(times);
+
+        boolean regressed = false;
+        int compared = 0;
+        for (Map.Entry<String, Double> entry : medians.entrySet()) {
+            String key = entry.getKey();
+            String[] parts = key.split(",");
+            Double old = before.get(perCollector ? key : key(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), "", ""));
+            if (old == null || old <= 0 || entry.getValue() <= 0)
+                continue;
+            compared++;
+            // Throughput is pages over time, so its change is the inverse ratio of the times
+            double change = (old / entry.getValue() - 1) * 100;
+            boolean slower = change < -tolerance;
+            regressed |= slower;
+            System.out.println(String.format(Locale.US, "%s %s: %.0fms -> %.0fms, throughput %+.1f%%",
+                    slower ? "REGRESSION" : "ok", key, old, entry.getValue(), change));
+        }
+        System.out.println("Compared " + compared + " combinations with " + baselineFile + (regressed
+                ? ", throughput dropped by more than " + tolerance + "%" : ", no regression"));
+        return regressed;
+    }
+}
@@ -1,29 +1,52 @@
-import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Function;
 
+import common.AutoTuner;
+import common.HeavyHitters;
+import common.LimitedExecutor;
+import common.Metrics;
+import common.NGramMapReduce;
 import common.Page;
-import common.Words;
+import common.TokenCache;
+import common.Tokenizer;
+import common.TopK;
+import common.WordCounter;
 import common.Pages;
+import common.Progress;
+import common.ShardedPages;
 
 public class CompletableFutureSolution {
     static final int DEFAULT_MAX_PAGES = 100000;
     static final String DEFAULT_FILE_NAME = "enwiki.xml";
-    static final int DEFAULT_THREAD_POOL_SIZE = 500;
+    static final int DEFAULT_TOP_WORDS = 3;
+    static final int DEFAULT_THREAD_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    static final int DEFAULT_BATCH_SIZE = 1;
 
     public static void main(String[] args) throws Exception {
         int maxPages = DEFAULT_MAX_PAGES;
         String fileName = DEFAULT_FILE_NAME;
+        int shards = 1;
+        boolean compatWords = false;
+        int topN = DEFAULT_TOP_WORDS;
+        double epsilon = 0;
+        boolean virtual = false;
         int threadPoolSize = DEFAULT_THREAD_POOL_SIZE;
+        String metricsFile = null;
+        String cacheFile = null;
+        boolean auto = false;
+        int httpPort = -1;
+        int ngram = 1;
+        int window = 0;
+        int batchSize = DEFAULT_BATCH_SIZE;
         
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("--pages") && i + 1 < args.length) {
@@ -35,60 +58,222 @@ public class CompletableFutureSolution {
             } else if (args[i].equals("--file") && i + 1 < args.length) {
                 fileName = args[i + 1];
                 i++; // Consume value
+            } else if (args[i].equals("--shards") && i + 1 < args.length) {
+                shards = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--compat-words")) {
+                compatWords = true;
+            } else if (args[i].equals("--top") && i + 1 < args.length) {
+                topN = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--approx") && i + 1 < args.length) {
+                epsilon = Double.parseDouble(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--virtual")) {
+                virtual = true;
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cacheFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--auto")) {
+                auto = true;
+            } else if (args[i].equals("--http") && i + 1 < args.length) {
+                httpPort = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--ngram") && i + 1 < args.length) {
+                ngram = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--window") && i + 1 < args.length) {
+                window = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--batch") && i + 1 < args.length) {
+                batchSize = Math.max(1, Integer.parseInt(args[i + 1]));
+                i++; // Consume value
             }
         }
         
-        System.out.println("Running with " + threadPoolSize + " threads, " + maxPages + " pages, file: " + fileName);
+        // With --cache, pages are read pre-tokenized; building a missing or stale cache is not measured
+        TokenCache cache = cacheFile != null ? TokenCache.open(cacheFile, fileName, compatWords) : null;
+        // With --auto, a calibration run on the start of the dump picks the settings (not measured)
+        if (auto) {
+            AutoTuner tuner = AutoTuner.calibrate(cache != null ? cache.pages(maxPages) : new Pages(maxPages, fileName), compatWords);
+            tuner.print();
+            threadPoolSize = tuner.parallelism();
+        }
+        System.out.println("Running with " + threadPoolSize + (virtual ? " virtual" : "") + " threads, " + maxPages + " pages, file: " + fileName);
         
-        ExecutorService executor = Executors.newFixedThreadPool(threadPoolSize);
-        long start = System.currentTimeMillis();
-        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
-        long cpuTimeBefore = bean.getCurrentThreadCpuTime();        Runtime runtime = Runtime.getRuntime();
-        runtime.gc();
-        long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+        // In virtual mode every page gets its own virtual thread; --threads caps how many exist at once
+        ExecutorService executor = virtual
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(threadPoolSize, Metrics.threadFactory());
+        Executor pageExecutor = virtual ? new LimitedExecutor(executor, threadPoolSize) : executor;
+        Metrics metrics = new Metrics("CompletableFutureSolution", threadPoolSize, maxPages, args);
+        // Live progress as the MXBean sismd:type=Progress and, with --http, as JSON on localhost
+        Progress progress = Progress.start("CompletableFutureSolution", topN);
+        if (httpPort >= 0)
+            progress.serve(httpPort);
+        if (pageExecutor instanceof LimitedExecutor limited)
+            progress.queue("tasks", limited::inFlight);
+        else
+            progress.queue("executor", ((ThreadPoolExecutor) executor).getQueue()::size);
 
-        Iterable<Page> pages = new Pages(maxPages, fileName);
-        List<CompletableFuture<Map<String,Integer>>> futures = new ArrayList<>();
+        Iterable<Page> pages = progress.track(metrics.timed(Metrics.Stage.PARSE, cache != null ? cache.pages(maxPages)
+                : shards > 1 ? new ShardedPages(maxPages, fileName, shards)
+                : new Pages(maxPages, fileName)), Progress::size);
+        final boolean finalCompatWords = compatWords;
+        // Pooled rather than per thread: in virtual mode every page gets a new thread
+        Queue<Tokenizer> idleTokenizers = new ConcurrentLinkedQueue<>();
+        // With --approx each page is folded into a fixed-size heavy-hitter summary instead of being kept
+        HeavyHitters heavyHitters = epsilon > 0 ? new HeavyHitters(epsilon) : null;
+        // With --ngram 2 or 3 each page is counted as phrases into per-worker counters merged once at the end
+        NGramMapReduce ngrams = ngram > 1 ? new NGramMapReduce(ngram, compatWords) : null;
+        // Page counts are only combined at the end, so only the heavy-hitter summary can be watched
+        if (heavyHitters != null)
+            progress.pull(() -> -1, heavyHitters::top);
+        Function<List<Page>, WordCounter> countBatch = batch -> {
+            long countStart = System.nanoTime();
+            // With --approx the batch is counted into a pooled counter and folded into the summary
+            WordCounter localCounts = heavyHitters != null ? heavyHitters.borrow() : new WordCounter();
+            Tokenizer tokenizer = idleTokenizers.poll();
+            if (tokenizer == null) {
+                tokenizer = new Tokenizer(finalCompatWords);
+            }
+            for (Page page : batch) {
+                if (ngrams != null) {
+                    ngrams.map(page);
+                } else {
+                    tokenizer.forEachWord(page, localCounts::add);
+                }
+            }
+            idleTokenizers.offer(tokenizer);
+            if (heavyHitters != null) {
+                heavyHitters.release(localCounts);
+                localCounts = new WordCounter();
+            }
+            metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart);
+            return localCounts;
+        };
+        WordCounter combinedCounts;
         int processedPages = 0;
 
-        for (Page page : pages) {
-            if (page == null) break;
-            CompletableFuture<Map<String,Integer>> future = CompletableFuture.supplyAsync(() -> {
-                Map<String,Integer> localCounts = new HashMap<>();
-                Iterable<String> words = new Words(page.getText());
-                for (String word : words) {
-                    if (word.length() > 1 || word.equals("a") || word.equals("I")) {
-                        localCounts.merge(word, 1, Integer::sum);
-                    }
+        if (window > 0) {
+            // With --window, batches are folded into a reduction tree as they complete; see submit()
+            Semaphore permits = new Semaphore(window);
+            int windowSize = window;
+            progress.queue("window", () -> windowSize - permits.availablePermits());
+            List<CompletableFuture<WordCounter>> levels = new ArrayList<>();
+            List<Page> batch = new ArrayList<>(batchSize);
+            for (Page page : pages) {
+                if (page == null) break;
+                batch.add(page);
+                processedPages++;
+                if (batch.size() == batchSize) {
+                    submit(batch, countBatch, permits, levels, pageExecutor, executor, metrics);
+                    batch = new ArrayList<>(batchSize);
                 }
-                return localCounts;
-            }, executor);
-            futures.add(future);
-            processedPages++;
-        }
+            }
+            if (!batch.isEmpty()) {
+                submit(batch, countBatch, permits, levels, pageExecutor, executor, metrics);
+            }
+            CompletableFuture<WordCounter> total = CompletableFuture.completedFuture(new WordCounter());
+            for (CompletableFuture<WordCounter> level : levels) {
+                if (level != null) {
+                    total = total.thenCombine(level, (a, b) -> combine(a, b, metrics));
+                }
+            }
+            combinedCounts = total.join();
+            if (ngrams != null) {
+                metrics.time(Metrics.Stage.MERGE, ngrams::getCounts);
+            }
+        } else {
+            List<CompletableFuture<WordCounter>> futures = new ArrayList<>();
+            for (Page page : pages) {
+                if (page == null) break;
+                futures.add(CompletableFuture.supplyAsync(() -> countBatch.apply(List.of(page)), pageExecutor));
+                processedPages++;
+            }
 
-        CompletableFuture<Void> allDone = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
-        allDone.join();
+            CompletableFuture<Void> allDone = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+            allDone.join();
 
-        Map<String,Integer> combinedCounts = new HashMap<>();
-        for (CompletableFuture<Map<String,Integer>> f : futures) {
-            f.join().forEach((k, v) -> combinedCounts.merge(k, v, Integer::sum));
+            long mergeStart = System.nanoTime();
+            combinedCounts = new WordCounter();
+            for (CompletableFuture<WordCounter> f : futures) {
+                combinedCounts.addAll(f.join());
+            }
+            if (ngrams != null) {
+                ngrams.getCounts();
+            }
+            metrics.add(Metrics.Stage.MERGE, System.nanoTime() - mergeStart);
         }
 
         executor.shutdown();
-        long end = System.currentTimeMillis();
-        long memoryAfter = runtime.totalMemory() - runtime.freeMemory();
-        long cpuTimeAfter = bean.getCurrentThreadCpuTime();        System.out.println("Processed pages: " + processedPages);
-        System.out.println("Elapsed time: " + (end - start) + "ms");
-        System.out.println("Usage Memory: " + (memoryAfter - memoryBefore) + " bytes");
-        System.out.println(String.format(Locale.US, "Usage Cpu Time %.8f seconds", (cpuTimeAfter - cpuTimeBefore) / 1_000_000_000.0));
+        if (heavyHitters != null)
+            metrics.time(Metrics.Stage.MERGE, heavyHitters::flush);
+        metrics.stop();
+        System.out.println("Processed pages: " + processedPages);
+        metrics.print();
 
-        LinkedHashMap<String,Integer> commonWords = new LinkedHashMap<>();
-        combinedCounts.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .forEachOrdered(e -> commonWords.put(e.getKey(), e.getValue()));
+        long reportStart = System.nanoTime();
+        if (ngrams != null) {
+            ngrams.printTopPhrases(topN);
+        } else if (heavyHitters != null) {
+            System.out.println("Approximate counts, error bound: " + heavyHitters.getErrorBound());
+            heavyHitters.top(topN)
+                    .forEach(e -> System.out.println("Word: '" + e.getKey() + "' with total " + e.getValue() + " occurrences!"));
+        } else {
+            TopK.of(combinedCounts, topN)
+                    .forEach(e -> System.out.println("Word: '" + e.getKey() + "' with total " + e.getValue() + " occurrences!"));
+        }
+        metrics.add(Metrics.Stage.REPORT, System.nanoTime() - reportStart);
+        progress.close();
+        if (metricsFile != null)
+            metrics.write(metricsFile);
+    }
+
+    /*  Counts batch once one of the window's permits is free, then carries the result up a
+        binary-counter tree: levels[l] holds the combined counts of 2^l consecutive batches,
+        and two equal levels merge with thenCombineAsync on the pool as soon as both are
+        done. Merging thus overlaps counting. Every merge takes a permit as well, held until
+        it is done like a batch's, so merges that fall behind hold the parser back instead
+        of letting counted batches pile up: besides one counter per level, only the window's
+        batches and merges and the counters they wait on are alive at a time.
+
+        Batches go to pageExecutor from the parsing thread. Merges are scheduled by the
+        thread completing a batch, so they go to executor itself: a LimitedExecutor would
+        block that thread on a slot it is holding.
+    */
+    private static void submit(List<Page> batch, Function<List<Page>, WordCounter> countBatch, Semaphore permits,
+                               List<CompletableFuture<WordCounter>> levels, Executor pageExecutor,
+                               Executor executor, Metrics metrics) throws InterruptedException {
+        permits.acquire();
+        CompletableFuture<WordCounter> node = CompletableFuture.supplyAsync(() -> countBatch.apply(batch), pageExecutor);
+        node.whenComplete((counts, error) -> permits.release());
+        for (int level = 0; ; level++) {
+            if (level == levels.size()) {
+                levels.add(node);
+                return;
+            }
+            CompletableFuture<WordCounter> left = levels.get(level);
+            if (left == null) {
+                levels.set(level, node);
+                return;
+            }
+            levels.set(level, null);
+            permits.acquire();
+            node = left.thenCombineAsync(node, (a, b) -> combine(a, b, metrics), executor);
+            node.whenComplete((counts, error) -> permits.release());
+        }
+    }
 
-        commonWords.entrySet().stream().limit(3).toList()
-                .forEach(e -> System.out.println("Word: '" + e.getKey() + "' with total " + e.getValue() + " occurrences!"));
+    // Folds the smaller counter into the larger one
+    private static WordCounter combine(WordCounter a, WordCounter b, Metrics metrics) {
+        long mergeStart = System.nanoTime();
+        WordCounter larger = a.size() >= b.size() ? a : b;
+        larger.addAll(larger == a ? b : a);
+        metrics.add(Metrics.Stage.MERGE, System.nanoTime() - mergeStart);
+        return larger;
     }
 }
@@ -0,0 +1,80 @@
+import common.Metrics;
+import common.ShardCoordinator;
+import common.TopK;
+import common.WordCounter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*  Scale-out mode: splits the dump into byte shards and has worker JVMs (Worker) count them.
+    With --spawn N the workers are started on this machine; otherwise start them yourself
+    with Worker --connect host:port, on any machine that has the dump at the same path.
+*/
+public class Coordinator {
+    static final String DEFAULT_FILE_NAME = "enwiki.xml";
+    static final int DEFAULT_TOP_WORDS = 3;
+    static final int DEFAULT_TIMEOUT_SECONDS = 600;
+
+    public static void main(String[] args) throws IOException {
+        String fileName = DEFAULT_FILE_NAME;
+        int topN = DEFAULT_TOP_WORDS;
+        int port = 0;
+        int spawn = 0;
+        int shards = 0;
+        int timeout = DEFAULT_TIMEOUT_SECONDS;
+        String metricsFile = null;
+        List<String> workerArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--file") && i + 1 < args.length) {
+                fileName = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--top") && i + 1 < args.length) {
+                topN = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--spawn") && i + 1 < args.length) {
+                spawn = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--shards") && i + 1 < args.length) {
+                shards = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--timeout") && i + 1 < args.length) {
+                timeout = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsFile = args[i + 1];
+                i++; // Consume value
+            } else if ((args[i].equals("--engine") || args[i].equals("--threads")) && i + 1 < args.length) {
+                // Passed on to spawned workers
+                workerArgs.add(args[i]);
+                workerArgs.add(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--compat-words")) {
+                workerArgs.add(args[i]);
+            }
+        }
+        // Several shards per worker, so a lost shard is a small part of the work to redo
+        if (shards <= 0)
+            shards = 4 * Math.max(1, spawn);
+
+        System.out.println("Running coordinator with " + shards + " shards, file: " + fileName);
+        Metrics metrics = new Metrics("Coordinator", spawn, 0, args);
+        ShardCoordinator coordinator = new ShardCoordinator(fileName, shards, port, timeout);
+        if (spawn > 0)
+            coordinator.spawnLocalWorkers(spawn, Worker.class.getName(), workerArgs);
+        WordCounter counts = coordinator.run();
+        metrics.add(Metrics.Stage.MERGE, coordinator.mergeNanos());
+        metrics.stop();
+        System.out.println("Processed pages: " + coordinator.pages());
+        metrics.print();
+
+        long reportStart = System.nanoTime();
+        TopK.of(counts, topN).forEach(x -> System.out.println("Word: '" +x.getKey()+ "' with total " +x.getValue()+" occurrences!"));
+        metrics.add(Metrics.Stage.REPORT, System.nanoTime() - reportStart);
+        if (metricsFile != null)
+            metrics.write(metricsFile);
+    }
+}
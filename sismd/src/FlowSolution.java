@@ -0,0 +1,255 @@
+import common.FlowStage;
+import common.Metrics;
+import common.NGramMapReduce;
+import common.Page;
+import common.Pages;
+import common.Progress;
+import common.ShardedPages;
+import common.TokenCache;
+import common.Tokenizer;
+import common.TopK;
+import common.WordCounter;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*  Pages -> tokenize -> count -> merge as separate java.util.concurrent.Flow stages, each
+    with its own threads and buffer, so the stages can be sized independently.
+
+    The parser (one thread, or --shards parsing threads) submits pages to a
+    SubmissionPublisher and blocks while the tokenize stage is a full buffer behind.
+    Tokenize turns each page into a compact Tokens chunk; count adds the chunks to one
+    WordCounter per count thread; merge folds those counters together once the count stage
+    completes. Every --report-every ms a line shows how far each stage got and how full its
+    queue is; at the end each stage prints its throughput, utilization and queue depth.
+*/
+public class FlowSolution {
+    static final int DEFAULT_MAX_PAGES = 100000;
+    static final String DEFAULT_FILE_NAME = "enwiki.xml";
+    static final int DEFAULT_TOP_WORDS = 3;
+    static final int DEFAULT_REPORT_MILLIS = 1000;
+
+    public static void main(String[] args) {
+
+        int maxPages = DEFAULT_MAX_PAGES;
+        String fileName = DEFAULT_FILE_NAME;
+        int shards = 1;
+        boolean compatWords = false;
+        int topN = DEFAULT_TOP_WORDS;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int tokenizeThreads = cores;
+        int countThreads = Math.max(1, cores / 2);
+        int buffer = Flow.defaultBufferSize();
+        int tokenizeBuffer = 0;
+        int countBuffer = 0;
+        int reportMillis = DEFAULT_REPORT_MILLIS;
+        String metricsFile = null;
+        String cacheFile = null;
+        int httpPort = -1;
+        int ngram = 1;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--pages") && i + 1 < args.length) {
+                maxPages = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--file") && i + 1 < args.length) {
+                fileName = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--shards") && i + 1 < args.length) {
+                shards = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--compat-words")) {
+                compatWords = true;
+            } else if (args[i].equals("--top") && i + 1 < args.length) {
+                topN = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--tokenize-threads") && i + 1 < args.length) {
+                tokenizeThreads = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--count-threads") && i + 1 < args.length) {
+                countThreads = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--buffer") && i + 1 < args.length) {
+                buffer = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--tokenize-buffer") && i + 1 < args.length) {
+                tokenizeBuffer = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--count-buffer") && i + 1 < args.length) {
+                countBuffer = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--report-every") && i + 1 < args.length) {
+                reportMillis = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cacheFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--http") && i + 1 < args.length) {
+                httpPort = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--ngram") && i + 1 < args.length) {
+                ngram = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            }
+        }
+        tokenizeBuffer = tokenizeBuffer > 0 ? tokenizeBuffer : buffer;
+        countBuffer = countBuffer > 0 ? countBuffer : buffer;
+
+        TokenCache cache = cacheFile != null ? TokenCache.open(cacheFile, fileName, compatWords) : null;
+        System.out.println("Running with " + tokenizeThreads + " tokenize and " + countThreads + " count threads, "
+                + maxPages + " pages, file: " + fileName);
+        Metrics metrics = new Metrics("FlowSolution", tokenizeThreads + countThreads, maxPages, args);
+
+        // Hands items from one stage to the next; the stages' own threads do the work
+        ExecutorService delivery = Executors.newCachedThreadPool(Metrics.threadFactory());
+        SubmissionPublisher<Page> pages = new SubmissionPublisher<>(delivery, tokenizeBuffer);
+        boolean compatible = compatWords;
+        ThreadLocal<Tokenizer> tokenizers = ThreadLocal.withInitial(() -> new Tokenizer(compatible));
+        FlowStage<Page, Tokens> tokenize = new FlowStage<>("tokenize", tokenizeThreads, tokenizeBuffer, delivery,
+                (page, emit) -> emit.accept(Tokens.of(tokenizers.get(), page)));
+        Queue<WordCounter> counters = new ConcurrentLinkedQueue<>();
+        ThreadLocal<WordCounter> counter = ThreadLocal.withInitial(() -> {
+            WordCounter created = new WordCounter();
+            counters.add(created);
+            return created;
+        });
+        // With --ngram 2 or 3 the count stage counts phrases of each chunk into per-worker counters
+        NGramMapReduce ngrams = ngram > 1 ? new NGramMapReduce(ngram, compatWords) : null;
+        FlowStage<Tokens, Void> count = new FlowStage<>("count", countThreads, countBuffer, delivery, ngrams != null
+                ? (tokens, emit) -> ngrams.map(tokens::forEachWord)
+                : (tokens, emit) -> tokens.addTo(counter.get()));
+        pages.subscribe(tokenize);
+        tokenize.subscribe(count);
+        // Live progress as the MXBean sismd:type=Progress and, with --http, as JSON on localhost
+        Progress progress = Progress.start("FlowSolution", topN);
+        if (httpPort >= 0)
+            progress.serve(httpPort);
+        progress.queue("pages", pages::estimateMaximumLag);
+        progress.queue("tokenize", tokenize::queueDepth);
+        progress.queue("count", count::queueDepth);
+
+        AtomicLong parsed = new AtomicLong();
+        long blockedNanos = 0;
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long parseStart = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> {
+            tokenize.sample();
+            count.sample();
+        }, 10, 10, TimeUnit.MILLISECONDS);
+        if (reportMillis > 0) {
+            reporter.scheduleAtFixedRate(() -> System.out.printf("[%5.1fs] parse %d pages, %d queued | %s | %s%n",
+                    (System.nanoTime() - parseStart) / 1e9, parsed.get(), pages.estimateMaximumLag(),
+                    tokenize.status(), count.status()), reportMillis, reportMillis, TimeUnit.MILLISECONDS);
+        }
+
+        Iterable<Page> source = progress.track(metrics.timed(Metrics.Stage.PARSE, cache != null ? cache.pages(maxPages)
+                : shards > 1 ? new ShardedPages(maxPages, fileName, shards)
+                : new Pages(maxPages, fileName)), Progress::size);
+        try {
+            for (Page page : source) {
+                if (page == null) break;
+                if (tokenize.failed() || count.failed()) break;
+
+                long submitStart = System.nanoTime();
+                pages.submit(page); // blocks while tokenize is a full buffer behind
+                blockedNanos += System.nanoTime() - submitStart;
+                parsed.incrementAndGet();
+            }
+            pages.close();
+        } catch (RuntimeException e) {
+            pages.closeExceptionally(e);
+            reporter.shutdownNow();
+            throw e;
+        }
+        long parseNanos = System.nanoTime() - parseStart;
+
+        WordCounter result = new WordCounter();
+        try {
+            tokenize.await();
+            count.await();
+        } finally {
+            reporter.shutdownNow();
+            delivery.shutdown();
+        }
+        metrics.add(Metrics.Stage.COUNT, tokenize.busyNanos() + count.busyNanos());
+        metrics.time(Metrics.Stage.MERGE, ngrams != null ? ngrams::getCounts : () -> counters.forEach(result::addAll));
+        metrics.stop();
+        System.out.println("Processed pages: " + parsed.get());
+        metrics.print();
+        System.out.printf("Stage parse: %d threads, %d pages, %.0f pages/s, blocked on a full buffer %.0f%% of the time%n",
+                Math.max(1, shards), parsed.get(), parsed.get() * 1e9 / Math.max(1, parseNanos),
+                100.0 * blockedNanos / Math.max(1, parseNanos));
+        System.out.println(tokenize.summary());
+        System.out.println(count.summary());
+
+        long reportStart = System.nanoTime();
+        if (ngrams != null) {
+            ngrams.printTopPhrases(topN);
+        } else {
+            TopK.of(result, topN)
+                    .forEach(x -> System.out.println("Word: '" + x.getKey() + "' with total " + x.getValue() + " occurrences!"));
+        }
+        metrics.add(Metrics.Stage.REPORT, System.nanoTime() - reportStart);
+        progress.close();
+        if (metricsFile != null)
+            metrics.write(metricsFile);
+    }
+
+    /* The words of one page packed into one char array, so a page crosses stages as two arrays rather than a String per word. */
+    private static final class Tokens {
+        final char[] chars;
+        final int[] ends;
+        final int size;
+
+        private Tokens(char[] chars, int[] ends, int size) {
+            this.chars = chars;
+            this.ends = ends;
+            this.size = size;
+        }
+
+        static Tokens of(Tokenizer tokenizer, Page page) {
+            char[][] chars = {new char[Math.max(16, page.getTextLength() / 2)]};
+            int[][] ends = {new int[Math.max(16, page.getTextLength() / 8)]};
+            int[] size = {0};
+            tokenizer.forEachWord(page, (text, offset, length) -> {
+                int start = size[0] == 0 ? 0 : ends[0][size[0] - 1];
+                if (start + length > chars[0].length) {
+                    chars[0] = Arrays.copyOf(chars[0], Math.max(start + length, chars[0].length * 2));
+                }
+                if (size[0] == ends[0].length) {
+                    ends[0] = Arrays.copyOf(ends[0], ends[0].length * 2);
+                }
+                System.arraycopy(text, offset, chars[0], start, length);
+                ends[0][size[0]++] = start + length;
+            });
+            return new Tokens(chars[0], ends[0], size[0]);
+        }
+
+        void forEachWord(Tokenizer.WordSink sink) {
+            int start = 0;
+            for (int i = 0; i < size; i++) {
+                sink.accept(chars, start, ends[i] - start);
+                start = ends[i];
+            }
+        }
+
+        void addTo(WordCounter counter) {
+            int start = 0;
+            for (int i = 0; i < size; i++) {
+                counter.add(chars, start, ends[i] - start);
+                start = ends[i];
+            }
+        }
+    }
+}
@@ -1,22 +1,45 @@
+import common.AutoTuner;
+import common.HeavyHitters;
+import common.Metrics;
+import common.NGramMapReduce;
 import common.Page;
+import common.PageSpliterator;
 import common.Pages;
+import common.Progress;
+import common.ShardedPages;
+import common.StreamingWordCountTask;
+import common.TokenCache;
+import common.TopK;
+import common.WordCounter;
 import common.WordCountRecursiveTask;
 
-import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadMXBean;
 import java.util.*;
-import java.util.Locale;
 import java.util.concurrent.ForkJoinPool;
 
 public class ForkJoinSolution {
     static final int DEFAULT_MAX_PAGES = 100000;
     static final String DEFAULT_FILE_NAME = "enwiki.xml";
-    static final int DEFAULT_PARALLELISM = 1000;
+    static final int DEFAULT_TOP_WORDS = 3;
+    static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    static final int DEFAULT_MAX_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
 
     public static void main(String[] args){
         int maxPages = DEFAULT_MAX_PAGES;
         String fileName = DEFAULT_FILE_NAME;
+        int shards = 1;
+        boolean compatWords = false;
+        int topN = DEFAULT_TOP_WORDS;
+        double epsilon = 0;
         int parallelism = DEFAULT_PARALLELISM;
+        boolean streaming = false;
+        int batchSize = PageSpliterator.DEFAULT_BATCH_SIZE;
+        int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        String metricsFile = null;
+        String cacheFile = null;
+        boolean auto = false;
+        int leafSize = WordCountRecursiveTask.DEFAULT_THRESHOLD;
+        int httpPort = -1;
+        int ngram = 1;
         
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("--pages") && i + 1 < args.length) {
@@ -28,45 +51,128 @@ public class ForkJoinSolution {
             } else if (args[i].equals("--file") && i + 1 < args.length) {
                 fileName = args[i + 1];
                 i++; // Consume value
+            } else if (args[i].equals("--shards") && i + 1 < args.length) {
+                shards = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--compat-words")) {
+                compatWords = true;
+            } else if (args[i].equals("--top") && i + 1 < args.length) {
+                topN = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--approx") && i + 1 < args.length) {
+                epsilon = Double.parseDouble(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--streaming")) {
+                streaming = true;
+            } else if (args[i].equals("--batch") && i + 1 < args.length) {
+                batchSize = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--in-flight") && i + 1 < args.length) {
+                maxInFlight = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cacheFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--auto")) {
+                auto = true;
+            } else if (args[i].equals("--leaf-size") && i + 1 < args.length) {
+                leafSize = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--http") && i + 1 < args.length) {
+                httpPort = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--ngram") && i + 1 < args.length) {
+                ngram = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
             }
         }
         
-        System.out.println("Running with " + parallelism + " threads, " + maxPages + " pages, file: " + fileName);
-        long start = System.currentTimeMillis();
-        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
-        long cpuTimeBefore = bean.getCurrentThreadCpuTime();
-        Runtime runtime = Runtime.getRuntime();
-        runtime.gc();
-        long memoryBefore = runtime.totalMemory() - runtime.freeMemory();        Iterable<Page> iterablePages = new Pages(maxPages, fileName);
-        List<Page> pages = new ArrayList<>();
-
-        for (Page page : iterablePages) {
-            if (page == null) continue;
-            pages.add(page);
+        // With --cache, pages are read pre-tokenized; building a missing or stale cache is not measured
+        TokenCache cache = cacheFile != null ? TokenCache.open(cacheFile, fileName, compatWords) : null;
+        // With --auto, a calibration run on the start of the dump picks the settings (not measured)
+        if (auto) {
+            AutoTuner tuner = AutoTuner.calibrate(cache != null ? cache.pages(maxPages) : new Pages(maxPages, fileName), compatWords);
+            tuner.print();
+            parallelism = tuner.parallelism();
+            batchSize = tuner.batchSize();
+            leafSize = tuner.leafSize();
         }
+        System.out.println("Running with " + parallelism + " threads, " + maxPages + " pages, file: " + fileName);
+        Metrics metrics = new Metrics("ForkJoinSolution", parallelism, maxPages, args);
+        // Live progress as the MXBean sismd:type=Progress and, with --http, as JSON on localhost
+        Progress progress = Progress.start("ForkJoinSolution", topN);
+        if (httpPort >= 0)
+            progress.serve(httpPort);
+        Iterable<Page> iterablePages = progress.track(metrics.timed(Metrics.Stage.PARSE, cache != null ? cache.pages(maxPages)
+                : shards > 1 ? new ShardedPages(maxPages, fileName, shards)
+                : new Pages(maxPages, fileName)), Progress::size);
+        int processedPages;
 
-        Map<String, Integer> result;
-        ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+        // With --approx the leaves fold their counts into a fixed-size heavy-hitter summary
+        HeavyHitters heavyHitters = epsilon > 0 ? new HeavyHitters(epsilon) : null;
+        // With --ngram 2 or 3 the leaves count phrases into per-worker counters merged once at the end
+        NGramMapReduce ngrams = ngram > 1 ? new NGramMapReduce(ngram, compatWords) : null;
+        WordCounter result;
+        ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism, Metrics.forkJoinThreadFactory(), null, false);
+        // The task tree only has counts once it is joined, so only the heavy-hitter summary can be watched
+        progress.queue("forkjoin", () -> forkJoinPool.getQueuedTaskCount() + forkJoinPool.getQueuedSubmissionCount());
+        if (heavyHitters != null)
+            progress.pull(() -> -1, heavyHitters::top);
         try {
-            WordCountRecursiveTask task = new WordCountRecursiveTask(pages);
-            result = forkJoinPool.invoke(task);
+            if (streaming) {
+                PageSpliterator batches = new PageSpliterator(iterablePages, batchSize);
+                StreamingWordCountTask task = ngrams != null
+                        ? new StreamingWordCountTask(batches, maxInFlight, ngrams, leafSize)
+                        : new StreamingWordCountTask(batches, maxInFlight, compatWords, heavyHitters, leafSize);
+                // Pages are parsed inside the pool here, so that part of the task time is already PARSE
+                long countStart = System.nanoTime();
+                long parseBefore = metrics.nanos(Metrics.Stage.PARSE);
+                result = forkJoinPool.invoke(task);
+                metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart - (metrics.nanos(Metrics.Stage.PARSE) - parseBefore));
+                processedPages = task.getPageCount();
+            } else {
+                List<Page> pages = new ArrayList<>();
+                for (Page page : iterablePages) {
+                    if (page == null) continue;
+                    pages.add(page);
+                }
+                WordCountRecursiveTask task = ngrams != null
+                        ? new WordCountRecursiveTask(pages, ngrams, leafSize)
+                        : new WordCountRecursiveTask(pages, compatWords, heavyHitters, leafSize);
+                // The leaves merge their results on the way up, so COUNT includes the merge here
+                long countStart = System.nanoTime();
+                result = forkJoinPool.invoke(task);
+                metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart);
+                processedPages = pages.size();
+            }
         } finally {
             forkJoinPool.shutdown();
         }
-        long end = System.currentTimeMillis();
-        long memoryAfter = runtime.totalMemory() - runtime.freeMemory();
-        long cpuTimeAfter = bean.getCurrentThreadCpuTime();        System.out.println("Processed pages: " + pages.size());
-        System.out.println("Elapsed time: " + (end - start) + "ms");
-        System.out.println("Usage Memory: " + (memoryAfter - memoryBefore) + " bytes");
-        System.out.println(String.format(Locale.US, "Usage Cpu Time %.8f seconds", (cpuTimeAfter - cpuTimeBefore) / 1_000_000_000.0));
-
+        if (ngrams != null)
+            metrics.time(Metrics.Stage.MERGE, ngrams::getCounts);
+        if (heavyHitters != null)
+            metrics.time(Metrics.Stage.MERGE, heavyHitters::flush);
+        metrics.stop();
+        System.out.println("Processed pages: " + processedPages);
+        metrics.print();
 
-        LinkedHashMap<String, Integer> commonWords = new LinkedHashMap<>();
-        result.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .forEachOrdered(x -> commonWords.put(x.getKey(), x.getValue()));
-
-        commonWords.entrySet().stream().limit(3).toList()
-                .forEach(x -> System.out.println("Word: '" + x.getKey() + "' with total " + x.getValue() + " occurrences!"));
+        long reportStart = System.nanoTime();
+        if (ngrams != null) {
+            ngrams.printTopPhrases(topN);
+        } else if (heavyHitters != null) {
+            System.out.println("Approximate counts, error bound: " + heavyHitters.getErrorBound());
+            heavyHitters.top(topN)
+                    .forEach(x -> System.out.println("Word: '" + x.getKey() + "' with total " + x.getValue() + " occurrences!"));
+        } else {
+            TopK.of(result, topN)
+                    .forEach(x -> System.out.println("Word: '" + x.getKey() + "' with total " + x.getValue() + " occurrences!"));
+        }
+        metrics.add(Metrics.Stage.REPORT, System.nanoTime() - reportStart);
+        progress.close();
+        if (metricsFile != null)
+            metrics.write(metricsFile);
     }
 }
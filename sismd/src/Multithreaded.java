@@ -1,26 +1,48 @@
+import common.AutoTuner;
+import common.HeavyHitters;
 import common.MapReduce;
+import common.NGramMapReduce;
+import common.Metrics;
 import common.Page;
+import common.PageRingBuffer;
 import common.Pages;
+import common.Progress;
+import common.ShardedPages;
+import common.SpillingCounts;
+import common.TokenCache;
 
-import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadMXBean;
 import java.util.concurrent.*;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Multithreaded {
     static final int DEFAULT_MAX_PAGES = 100000;
     static final String DEFAULT_FILE_NAME = "enwiki.xml";
-    static final int DEFAULT_NUM_CONSUMERS = 500;
+    static final int DEFAULT_TOP_WORDS = 3;
+    static final int DEFAULT_NUM_CONSUMERS = Runtime.getRuntime().availableProcessors();
     static final int QUEUE_CAPACITY = 500;
-
-    private static final MapReduce mapReduce = new MapReduce();
+    static final int DEFAULT_CLAIM_BATCH = 16;
 
     public static void main(String[] args) {
         int maxPages = DEFAULT_MAX_PAGES;
         String fileName = DEFAULT_FILE_NAME;
+        int shards = 1;
+        boolean compatWords = false;
+        int topN = DEFAULT_TOP_WORDS;
+        double epsilon = 0;
+        boolean localCounts = false;
+        boolean ring = false;
+        boolean virtual = false;
+        int claimBatch = DEFAULT_CLAIM_BATCH;
         int numConsumers = DEFAULT_NUM_CONSUMERS;
+        String metricsFile = null;
+        String cacheFile = null;
+        boolean auto = false;
+        int spillMegabytes = 0;
+        String spillDir = null;
+        int httpPort = -1;
+        int ngram = 1;
         
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("--pages") && i + 1 < args.length) {
@@ -32,42 +54,128 @@ public class Multithreaded {
             } else if (args[i].equals("--file") && i + 1 < args.length) {
                 fileName = args[i + 1];
                 i++; // Consume value
+            } else if (args[i].equals("--shards") && i + 1 < args.length) {
+                shards = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--compat-words")) {
+                compatWords = true;
+            } else if (args[i].equals("--top") && i + 1 < args.length) {
+                topN = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--approx") && i + 1 < args.length) {
+                epsilon = Double.parseDouble(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--local-counts")) {
+                localCounts = true;
+            } else if (args[i].equals("--ring")) {
+                ring = true;
+            } else if (args[i].equals("--virtual")) {
+                virtual = true;
+            } else if (args[i].equals("--batch") && i + 1 < args.length) {
+                claimBatch = Math.max(1, Integer.parseInt(args[i + 1]));
+                i++; // Consume value
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cacheFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--auto")) {
+                auto = true;
+            } else if (args[i].equals("--spill") && i + 1 < args.length) {
+                spillMegabytes = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--spill-dir") && i + 1 < args.length) {
+                spillDir = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--http") && i + 1 < args.length) {
+                httpPort = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--ngram") && i + 1 < args.length) {
+                ngram = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
             }
         }
         
-        System.out.println("Running with " + numConsumers + " threads, " + maxPages + " pages, file: " + fileName);
+        // With --cache, pages are read pre-tokenized; building a missing or stale cache is not measured
+        TokenCache cache = cacheFile != null ? TokenCache.open(cacheFile, fileName, compatWords) : null;
+        // With --auto, a calibration run on the start of the dump picks the settings (not measured)
+        if (auto) {
+            AutoTuner tuner = AutoTuner.calibrate(cache != null ? cache.pages(maxPages) : new Pages(maxPages, fileName), compatWords);
+            tuner.print();
+            numConsumers = tuner.parallelism();
+            claimBatch = tuner.batchSize();
+        }
+        System.out.println("Running with " + numConsumers + (virtual ? " virtual" : "") + " threads, " + maxPages + " pages, file: " + fileName);
 
+        // With --ngram 2 or 3, phrases of consecutive words are counted instead of single words
+        // With --spill, per-thread counters go to sorted runs on disk whenever they reach their share of the budget
+        MapReduce mapReduce = ngram > 1
+                ? new MapReduce(new NGramMapReduce(ngram, compatWords))
+                : spillMegabytes > 0
+                ? new MapReduce(compatWords, new SpillingCounts((long) spillMegabytes << 20, numConsumers, spillDir))
+                : new MapReduce(compatWords, localCounts, epsilon > 0 ? new HeavyHitters(epsilon) : null);
         BlockingQueue<Page> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
         AtomicBoolean producerDone = new AtomicBoolean(false);
+        // With --ring, pages go through a preallocated ring and consumers claim --batch pages at a time
+        PageRingBuffer ringBuffer = ring ? new PageRingBuffer(QUEUE_CAPACITY) : null;
         
-        long start = System.currentTimeMillis();
-        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
-        long cpuTimeBefore = bean.getCurrentThreadCpuTime();
-        Runtime runtime = Runtime.getRuntime();
-        runtime.gc();
-        long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+        Metrics metrics = new Metrics("Multithreaded", numConsumers, maxPages, args);
+        // Live progress as the MXBean sismd:type=Progress and, with --http, as JSON on localhost
+        Progress progress = Progress.start("Multithreaded", topN);
+        if (httpPort >= 0)
+            progress.serve(httpPort);
+        progress.queue("pages", ringBuffer != null ? ringBuffer::size : queue::size);
+        progress.pull(mapReduce::distinctSoFar, mapReduce::topSoFar);
 
         // Producer thread - using final copies of variables for lambda expressions
         final int finalMaxPages = maxPages;
         final String finalFileName = fileName;
-        Thread producer = new Thread(() -> {
-            Iterable<Page> pages = new Pages(finalMaxPages, finalFileName);
+        final int finalShards = shards;
+        final int finalClaimBatch = claimBatch;
+        // A parse error ends the producer early; it is rethrown once the consumers drained what was read
+        AtomicReference<RuntimeException> producerError = new AtomicReference<>();
+        Thread producer = new Thread(Metrics.tracked(() -> {
+            Iterable<Page> pages = progress.track(metrics.timed(Metrics.Stage.PARSE, cache != null ? cache.pages(finalMaxPages)
+                    : finalShards > 1 ? new ShardedPages(finalMaxPages, finalFileName, finalShards)
+                    : new Pages(finalMaxPages, finalFileName)), Progress::size);
             try {
                 for (Page page : pages) {
                     if (page == null) continue;
-                    queue.put(page);
+                    if (ringBuffer != null)
+                        ringBuffer.put(page);
+                    else
+                        queue.put(page);
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                producerError.set(e);
             } finally {
                 producerDone.set(true);
+                if (ringBuffer != null) ringBuffer.close();
             }
-        });
+        }));
 
-        // Consumer threads
+        // Consumer threads; with --virtual each consumer is a virtual thread, blocking on the queue without holding a carrier
+        Runnable ringConsumer = () -> {
+            List<Page> batch = new ArrayList<>(finalClaimBatch);
+            try {
+                while (ringBuffer.drainTo(batch, finalClaimBatch) >= 0) {
+                    long countStart = System.nanoTime();
+                    for (Page page : batch) {
+                        mapReduce.map(page);
+                    }
+                    metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
         List<Thread> consumers = new ArrayList<>();
         for (int i = 0; i < numConsumers; i++) {
-            Thread consumer = new Thread(() -> {
+            Runnable body = Metrics.tracked(ringBuffer != null ? ringConsumer : () -> {
                 try {
                     while (true) {
                         if (producerDone.get() && queue.isEmpty()) break;
@@ -81,14 +189,16 @@ public class Multithreaded {
                         }
 
                         if (page != null) {
-                            mapReduce.map(page.getText());
+                            long countStart = System.nanoTime();
+                            mapReduce.map(page);
+                            metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart);
                         }
                     }
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
             });
-            consumers.add(consumer);
+            consumers.add(virtual ? Thread.ofVirtual().unstarted(body) : new Thread(body));
         }
 
         producer.start();
@@ -102,15 +212,18 @@ public class Multithreaded {
             }
         } catch (InterruptedException e) {
             e.printStackTrace();
-        }        long end = System.currentTimeMillis();
-        long memoryAfter = runtime.totalMemory() - runtime.freeMemory();
-        long cpuTimeAfter = bean.getCurrentThreadCpuTime();
-        
-        // Use Locale.US to ensure decimal point is '.' not ','
-        System.out.println("Elapsed time: " + (end - start) + "ms");
-        System.out.println("Usage Memory: " + (memoryAfter - memoryBefore) + " bytes");
-        System.out.println(String.format(Locale.US, "Usage Cpu Time %.8f seconds", (cpuTimeAfter - cpuTimeBefore) / 1_000_000_000.0));
+        }
+        if (producerError.get() != null)
+            throw producerError.get();
+        metrics.time(Metrics.Stage.MERGE, mapReduce::getCounts);
+        metrics.stop();
+        metrics.print();
 
-        mapReduce.printTopWords(3);
+        long reportStart = System.nanoTime();
+        mapReduce.printTopWords(topN);
+        metrics.add(Metrics.Stage.REPORT, System.nanoTime() - reportStart);
+        progress.close();
+        if (metricsFile != null)
+            metrics.write(metricsFile);
     }
 }
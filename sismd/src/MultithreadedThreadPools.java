@@ -1,26 +1,73 @@
+import common.AutoTuner;
+import common.ByteMapReduce;
+import common.BytePage;
+import common.BytePages;
+import common.ByteScanner;
+import common.IndexBuilder;
+import common.LimitedExecutor;
 import common.Page;
 import common.Pages;
-import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadMXBean;
+import common.Progress;
+import common.ShardedPages;
+import common.SpillingCounts;
+import common.TokenCache;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.Locale;
 
+import common.HeavyHitters;
 import common.MapReduce;
+import common.NGramMapReduce;
+import common.Metrics;
 
 public class MultithreadedThreadPools {
     static final int DEFAULT_MAX_PAGES = 100000;
     static final String DEFAULT_FILE_NAME = "enwiki.xml";
-    static final int DEFAULT_NUM_THREADS = 500;
+    static final int DEFAULT_TOP_WORDS = 3;
+    static final int DEFAULT_NUM_THREADS = Runtime.getRuntime().availableProcessors();
+    static final int DEFAULT_BATCH_SIZE = 1;
 
-    private static final MapReduce mapReduce = new MapReduce();
+    // Besides --pages, --file, --threads, --batch, --queue, --virtual, --auto, --top, --metrics and --http,
+    // the options each mode reads
+    private static final Map<String, List<String>> MODE_OPTIONS = Map.of(
+            "--bytes", List.of("--bytes", "--no-simd"),
+            "--index", List.of("--index", "--shards", "--compat-words"),
+            "--ngram", List.of("--ngram", "--shards", "--cache", "--compat-words"),
+            "--approx", List.of("--approx", "--shards", "--cache", "--compat-words"),
+            "word counting", List.of("--shards", "--cache", "--compat-words", "--local-counts", "--spill", "--spill-dir"));
 
     public static void main(String[] args) {
 
         int maxPages = DEFAULT_MAX_PAGES;
         String fileName = DEFAULT_FILE_NAME;
+        int shards = 1;
+        boolean compatWords = false;
+        int topN = DEFAULT_TOP_WORDS;
+        double epsilon = 0;
+        boolean localCounts = false;
+        boolean virtual = false;
+        int queueCapacity = 0;
+        int batchSize = DEFAULT_BATCH_SIZE;
         int numThreads = DEFAULT_NUM_THREADS;
+        boolean bytes = false;
+        boolean noSimd = false;
+        String metricsFile = null;
+        String cacheFile = null;
+        boolean auto = false;
+        int spillMegabytes = 0;
+        String spillDir = null;
+        int httpPort = -1;
+        int ngram = 1;
+        String indexFile = null;
         
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("--pages") && i + 1 < args.length) {
@@ -32,23 +79,185 @@ public class MultithreadedThreadPools {
             } else if (args[i].equals("--file") && i + 1 < args.length) {
                 fileName = args[i + 1];
                 i++; // Consume value
+            } else if (args[i].equals("--shards") && i + 1 < args.length) {
+                shards = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--compat-words")) {
+                compatWords = true;
+            } else if (args[i].equals("--top") && i + 1 < args.length) {
+                topN = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--approx") && i + 1 < args.length) {
+                epsilon = Double.parseDouble(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--local-counts")) {
+                localCounts = true;
+            } else if (args[i].equals("--virtual")) {
+                virtual = true;
+            } else if (args[i].equals("--queue") && i + 1 < args.length) {
+                queueCapacity = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--batch") && i + 1 < args.length) {
+                batchSize = Math.max(1, Integer.parseInt(args[i + 1]));
+                i++; // Consume value
+            } else if (args[i].equals("--bytes")) {
+                bytes = true;
+            } else if (args[i].equals("--no-simd")) {
+                noSimd = true;
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cacheFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--auto")) {
+                auto = true;
+            } else if (args[i].equals("--spill") && i + 1 < args.length) {
+                spillMegabytes = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--spill-dir") && i + 1 < args.length) {
+                spillDir = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--http") && i + 1 < args.length) {
+                httpPort = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--ngram") && i + 1 < args.length) {
+                ngram = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--index") && i + 1 < args.length) {
+                indexFile = args[i + 1];
+                i++; // Consume value
             }
         }
 
-        long start = System.currentTimeMillis();
-        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
-        long cpuTimeBefore = bean.getCurrentThreadCpuTime();
-        Runtime runtime = Runtime.getRuntime();
-        runtime.gc();
-        long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+        // The modes take precedence in this order; an option the chosen one would not read is refused
+        String mode = bytes ? "--bytes" : indexFile != null ? "--index" : ngram > 1 ? "--ngram"
+                : epsilon > 0 ? "--approx" : "word counting";
+        List<String> given = new ArrayList<>();
+        if (bytes) given.add("--bytes");
+        if (noSimd) given.add("--no-simd");
+        if (indexFile != null) given.add("--index");
+        if (ngram > 1) given.add("--ngram");
+        if (epsilon > 0) given.add("--approx");
+        if (shards > 1) given.add("--shards");
+        if (cacheFile != null) given.add("--cache");
+        if (compatWords) given.add("--compat-words");
+        if (localCounts) given.add("--local-counts");
+        if (spillMegabytes > 0) given.add("--spill");
+        if (spillDir != null) given.add("--spill-dir");
+        given.removeAll(MODE_OPTIONS.get(mode));
+        if (!given.isEmpty()) {
+            System.out.println(mode + " does not use " + String.join(", ", given));
+            System.out.println("Usage: MultithreadedThreadPools [--pages N] [--file F] [--threads N] [--batch N] [--queue N]"
+                    + " [--virtual] [--auto] [--top N] [--metrics F] [--http PORT]"
+                    + " [--bytes [--no-simd]"
+                    + " | --index F [--shards N] [--compat-words]"
+                    + " | --ngram N [--shards N] [--cache F] [--compat-words]"
+                    + " | --approx E [--shards N] [--cache F] [--compat-words]"
+                    + " | [--shards N] [--cache F] [--compat-words] [--local-counts] [--spill MB [--spill-dir D]]]");
+            return;
+        }
+        if (noSimd)
+            ByteScanner.setVectorized(false);
 
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-        Iterable<Page> pages = new Pages(maxPages, fileName);
+        // With --cache, pages are read pre-tokenized; building a missing or stale cache is not measured
+        TokenCache cache = cacheFile != null ? TokenCache.open(cacheFile, fileName, compatWords) : null;
+        // With --auto, a calibration run on the start of the dump picks the settings (not measured)
+        if (auto) {
+            AutoTuner tuner = AutoTuner.calibrate(cache != null ? cache.pages(maxPages) : new Pages(maxPages, fileName), compatWords);
+            tuner.print();
+            numThreads = tuner.parallelism();
+            batchSize = tuner.batchSize();
+        }
+        Metrics metrics = new Metrics("MultithreadedThreadPools", numThreads, maxPages, args);
+        // Live progress as the MXBean sismd:type=Progress and, with --http, as JSON on localhost
+        Progress progress = Progress.start("MultithreadedThreadPools", topN);
+        if (httpPort >= 0)
+            progress.serve(httpPort);
 
-        for (Page page : pages) {
-            if (page == null) continue;
+        // With --bytes pages stay UTF-8 slices of the mapped file and are counted without decoding
+        ByteMapReduce byteMapReduce = bytes ? new ByteMapReduce() : null;
+        if (bytes)
+            System.out.println("Byte scanning: " + ByteScanner.describe());
+        // With --index, pages are numbered as they are parsed and the word -> pages index is built instead
+        IndexBuilder index = indexFile != null ? new IndexBuilder(compatWords) : null;
+        // With --ngram 2 or 3, phrases of consecutive words are counted instead of single words
+        // With --spill, per-thread counters go to sorted runs on disk whenever they reach their share of the budget
+        MapReduce mapReduce = ngram > 1
+                ? new MapReduce(new NGramMapReduce(ngram, compatWords))
+                : spillMegabytes > 0
+                ? new MapReduce(compatWords, new SpillingCounts((long) spillMegabytes << 20, numThreads, spillDir))
+                : new MapReduce(compatWords, localCounts, epsilon > 0 ? new HeavyHitters(epsilon) : null);
+        // In virtual mode every page gets its own virtual thread; --threads caps how many exist at once
+        // With --queue the pool holds at most that many pending batches and the parser blocks until one frees up
+        ExecutorService executor;
+        if (virtual) {
+            executor = Executors.newVirtualThreadPerTaskExecutor();
+        } else if (queueCapacity > 0) {
+            executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), Metrics.threadFactory(), MultithreadedThreadPools::waitForQueue);
+        } else {
+            executor = Executors.newFixedThreadPool(numThreads, Metrics.threadFactory());
+        }
+        Executor pageExecutor = virtual ? new LimitedExecutor(executor, numThreads) : executor;
+        if (pageExecutor instanceof LimitedExecutor limited)
+            progress.queue("tasks", limited::inFlight);
+        else
+            progress.queue("executor", ((ThreadPoolExecutor) executor).getQueue()::size);
+        if (!bytes && index == null)
+            progress.pull(mapReduce::distinctSoFar, mapReduce::topSoFar);
+        if (bytes) {
+            List<BytePage> batch = new ArrayList<>(batchSize);
+            for (BytePage page : progress.track(metrics.timed(Metrics.Stage.PARSE, new BytePages(maxPages, fileName)),
+                    page -> page.getText().remaining())) {
+                batch.add(page);
+                if (batch.size() == batchSize) {
+                    submit(pageExecutor, byteMapReduce, batch, metrics);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(pageExecutor, byteMapReduce, batch, metrics);
+            }
+        } else if (index != null) {
+            // The dump itself even with --cache, whose pages keep no titles
+            List<Page> batch = new ArrayList<>(batchSize);
+            int firstId = 0;
+            for (Page page : progress.track(metrics.timed(Metrics.Stage.PARSE, shards > 1
+                    ? new ShardedPages(maxPages, fileName, shards)
+                    : new Pages(maxPages, fileName)), Progress::size)) {
+                if (page == null) continue;
 
-            executor.execute(() -> mapReduce.map(page.getText()));
+                int id = index.page(page.getTitle());
+                if (batch.isEmpty())
+                    firstId = id;
+                batch.add(page);
+                if (batch.size() == batchSize) {
+                    submit(pageExecutor, index, batch, firstId, metrics);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(pageExecutor, index, batch, firstId, metrics);
+            }
+        } else {
+            Iterable<Page> pages = progress.track(metrics.timed(Metrics.Stage.PARSE, cache != null ? cache.pages(maxPages)
+                    : shards > 1 ? new ShardedPages(maxPages, fileName, shards)
+                    : new Pages(maxPages, fileName)), Progress::size);
+
+            List<Page> batch = new ArrayList<>(batchSize);
+            for (Page page : pages) {
+                if (page == null) continue;
+
+                batch.add(page);
+                if (batch.size() == batchSize) {
+                    submit(pageExecutor, mapReduce, batch, metrics);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(pageExecutor, mapReduce, batch, metrics);
+            }
         }
 
         executor.shutdown();
@@ -59,13 +268,79 @@ public class MultithreadedThreadPools {
         } catch (InterruptedException e) {
             executor.shutdownNow();
             Thread.currentThread().interrupt();
-        }        long end = System.currentTimeMillis();
-
-        long memoryAfter = runtime.totalMemory() - runtime.freeMemory();
-        long cpuTimeAfter = bean.getCurrentThreadCpuTime();
-        System.out.println("Elapsed time: " + (end - start) + "ms");
-        System.out.println("Usage Memory: " + (memoryAfter - memoryBefore) + " bytes");
-        System.out.println(String.format(Locale.US, "Usage Cpu Time %.8f seconds", (cpuTimeAfter - cpuTimeBefore) / 1_000_000_000.0));
-        mapReduce.printTopWords(3);
+        }
+        if (index != null) {
+            writeIndex(index, indexFile, numThreads, metrics);
+        } else {
+            metrics.time(Metrics.Stage.MERGE, bytes ? byteMapReduce::getCounts : mapReduce::getCounts);
+            metrics.stop();
+            metrics.print();
+
+            long reportStart = System.nanoTime();
+            if (bytes) {
+                byteMapReduce.printTopWords(topN);
+            } else {
+                mapReduce.printTopWords(topN);
+            }
+            metrics.add(Metrics.Stage.REPORT, System.nanoTime() - reportStart);
+        }
+        progress.close();
+        if (metricsFile != null)
+            metrics.write(metricsFile);
+    }
+
+    private static void submit(Executor executor, MapReduce mapReduce, List<Page> batch, Metrics metrics) {
+        executor.execute(() -> {
+            long countStart = System.nanoTime();
+            for (Page page : batch) {
+                mapReduce.map(page);
+            }
+            metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart);
+        });
+    }
+
+    private static void submit(Executor executor, ByteMapReduce byteMapReduce, List<BytePage> batch, Metrics metrics) {
+        executor.execute(() -> {
+            long countStart = System.nanoTime();
+            for (BytePage page : batch) {
+                byteMapReduce.map(page);
+            }
+            metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart);
+        });
+    }
+
+    // Pages of a batch have consecutive ids from firstId
+    private static void submit(Executor executor, IndexBuilder index, List<Page> batch, int firstId, Metrics metrics) {
+        executor.execute(() -> {
+            long countStart = System.nanoTime();
+            for (int i = 0; i < batch.size(); i++) {
+                index.map(firstId + i, batch.get(i));
+            }
+            metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart);
+        });
+    }
+
+    private static void writeIndex(IndexBuilder index, String indexFile, int threads, Metrics metrics) {
+        long mergeStart = System.nanoTime();
+        long[] written;
+        try {
+            written = index.write(indexFile, threads);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        metrics.add(Metrics.Stage.MERGE, System.nanoTime() - mergeStart);
+        metrics.stop();
+        metrics.print();
+        System.out.println("Index " + indexFile + ": " + written[0] + " words, " + written[1] + " postings, "
+                + written[2] + " bytes");
+    }
+
+    private static void waitForQueue(Runnable task, ThreadPoolExecutor executor) {
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
     }
 }
@@ -0,0 +1,52 @@
+import common.InvertedIndex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*  Answers "pages containing X and Y and ..." from an index written with --index, straight
+    off the memory-mapped file. Without words it lists the words found on the most pages.
+*/
+public class QueryIndex {
+    static final String DEFAULT_INDEX_FILE = "wordpages.index";
+    static final int DEFAULT_TOP_WORDS = 3;
+    static final int DEFAULT_LIMIT = 10;
+
+    public static void main(String[] args) throws IOException {
+        String indexFile = DEFAULT_INDEX_FILE;
+        int topN = DEFAULT_TOP_WORDS;
+        int limit = DEFAULT_LIMIT;
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--index") && i + 1 < args.length) {
+                indexFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--top") && i + 1 < args.length) {
+                topN = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--limit") && i + 1 < args.length) {
+                limit = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else {
+                words.add(args[i]);
+            }
+        }
+
+        InvertedIndex index = InvertedIndex.open(indexFile);
+        System.out.println("Index: " + indexFile + ", pages: " + index.pages() + ", distinct words: " + index.size());
+        if (words.isEmpty()) {
+            index.top(topN).forEach(x -> System.out.println("Word: '" +x.getKey()+ "' on " +x.getValue()+" pages!"));
+            return;
+        }
+        for (String word : words) {
+            System.out.println("Word: '" + word + "' on " + index.frequency(word) + " pages!");
+        }
+        long start = System.nanoTime();
+        int[] pages = index.pagesWithAll(words);
+        long micros = (System.nanoTime() - start) / 1000;
+        System.out.println("Pages with '" + String.join("' and '", words) + "': " + pages.length + " (" + micros + "us)");
+        for (int i = 0; i < Math.min(limit, pages.length); i++) {
+            System.out.println("Page " + pages[i] + ": " + index.title(pages[i]));
+        }
+    }
+}
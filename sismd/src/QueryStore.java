@@ -0,0 +1,40 @@
+import common.WordStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*  Looks words up in a store written by Sequential --store without counting anything:
+    the store is memory-mapped, so only the pages touched by the lookups are read.
+*/
+public class QueryStore {
+    static final String DEFAULT_STORE_FILE = "wordcounts.store";
+    static final int DEFAULT_TOP_WORDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        String storeFile = DEFAULT_STORE_FILE;
+        int topN = DEFAULT_TOP_WORDS;
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--store") && i + 1 < args.length) {
+                storeFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--top") && i + 1 < args.length) {
+                topN = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else {
+                words.add(args[i]);
+            }
+        }
+
+        WordStore store = WordStore.open(storeFile);
+        System.out.println("Store: " + storeFile + ", pages: " + store.pages() + ", distinct words: " + store.size()
+                + ", checkpoint at byte " + store.checkpointOffset() + " of " + store.sourceSize());
+        for (String word : words) {
+            System.out.println("Word: '" + word + "' with total " + store.count(word) + " occurrences!");
+        }
+        if (words.isEmpty()) {
+            store.top(topN).forEach(x -> System.out.println("Word: '" +x.getKey()+ "' with total " +x.getValue()+" occurrences!"));
+        }
+    }
+}
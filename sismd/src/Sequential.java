@@ -1,25 +1,65 @@
+import common.BytePage;
+import common.BytePages;
+import common.ByteScanner;
+import common.ByteTokenizer;
+import common.ByteWordCounter;
+import common.HeavyHitters;
+import common.IndexBuilder;
+import common.Metrics;
+import common.NGramMapReduce;
 import common.Page;
 import common.Pages;
-import common.Words;
+import common.Progress;
+import common.ResumablePages;
+import common.ShardedPages;
+import common.SpillingCounts;
+import common.TokenCache;
+import common.Tokenizer;
+import common.TopK;
+import common.WordCounter;
+import common.WordStore;
 
-import java.lang.management.ThreadMXBean;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Locale;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadMXBean;
 
 public class Sequential {
     static final int DEFAULT_MAX_PAGES = 100000;
     static final String DEFAULT_FILE_NAME = "enwiki.xml";
+    static final int DEFAULT_TOP_WORDS = 3;
+    static final int DEFAULT_CHECKPOINT_PAGES = 10000;
 
-    private static final HashMap<String, Integer> counts = new HashMap<>();
+    private static final WordCounter counts = new WordCounter();
+
+    // Besides --pages, --file, --top, --metrics and --http, the options each mode reads
+    private static final Map<String, List<String>> MODE_OPTIONS = Map.of(
+            "--store", List.of("--store", "--compat-words", "--checkpoint-every"),
+            "--index", List.of("--index", "--shards", "--compat-words"),
+            "--ngram", List.of("--ngram", "--shards", "--cache", "--compat-words"),
+            "--bytes", List.of("--bytes", "--no-simd"),
+            "--approx", List.of("--approx", "--shards", "--cache", "--compat-words"),
+            "word counting", List.of("--shards", "--cache", "--compat-words", "--spill", "--spill-dir"));
 
     public static void main(String[] args){
         int maxPages = DEFAULT_MAX_PAGES;
-        String fileName = DEFAULT_FILE_NAME;        
+        String fileName = DEFAULT_FILE_NAME;
+        int shards = 1;
+        boolean compatWords = false;
+        int topN = DEFAULT_TOP_WORDS;
+        double epsilon = 0;
+        boolean bytes = false;
+        boolean noSimd = false;
+        String metricsFile = null;
+        String cacheFile = null;
+        String storeFile = null;
+        int checkpointEvery = 0;
+        int spillMegabytes = 0;
+        String spillDir = null;
+        int httpPort = -1;
+        int ngram = 1;
+        String indexFile = null;
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("--pages") && i + 1 < args.length) {
                 maxPages = Integer.parseInt(args[i + 1]);
@@ -27,41 +67,296 @@ public class Sequential {
             } else if (args[i].equals("--file") && i + 1 < args.length) {
                 fileName = args[i + 1];
                 i++; // Consume value
+            } else if (args[i].equals("--shards") && i + 1 < args.length) {
+                shards = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--compat-words")) {
+                compatWords = true;
+            } else if (args[i].equals("--top") && i + 1 < args.length) {
+                topN = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--approx") && i + 1 < args.length) {
+                epsilon = Double.parseDouble(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--bytes")) {
+                bytes = true;
+            } else if (args[i].equals("--no-simd")) {
+                noSimd = true;
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cacheFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--store") && i + 1 < args.length) {
+                storeFile = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--checkpoint-every") && i + 1 < args.length) {
+                checkpointEvery = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--spill") && i + 1 < args.length) {
+                spillMegabytes = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--spill-dir") && i + 1 < args.length) {
+                spillDir = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--http") && i + 1 < args.length) {
+                httpPort = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--ngram") && i + 1 < args.length) {
+                ngram = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--index") && i + 1 < args.length) {
+                indexFile = args[i + 1];
+                i++; // Consume value
             }
         }
-        
+
+        // The modes take precedence in this order; an option the chosen one would not read is refused
+        String mode = storeFile != null ? "--store" : indexFile != null ? "--index" : ngram > 1 ? "--ngram"
+                : bytes ? "--bytes" : epsilon > 0 ? "--approx" : "word counting";
+        List<String> given = new ArrayList<>();
+        if (storeFile != null) given.add("--store");
+        if (checkpointEvery > 0) given.add("--checkpoint-every");
+        if (indexFile != null) given.add("--index");
+        if (ngram > 1) given.add("--ngram");
+        if (bytes) given.add("--bytes");
+        if (noSimd) given.add("--no-simd");
+        if (epsilon > 0) given.add("--approx");
+        if (shards > 1) given.add("--shards");
+        if (cacheFile != null) given.add("--cache");
+        if (compatWords) given.add("--compat-words");
+        if (spillMegabytes > 0) given.add("--spill");
+        if (spillDir != null) given.add("--spill-dir");
+        given.removeAll(MODE_OPTIONS.get(mode));
+        if (!given.isEmpty()) {
+            System.out.println(mode + " does not use " + String.join(", ", given));
+            System.out.println("Usage: Sequential [--pages N] [--file F] [--top N] [--metrics F] [--http PORT]"
+                    + " [--store F [--checkpoint-every N] [--compat-words]"
+                    + " | --index F [--shards N] [--compat-words]"
+                    + " | --ngram N [--shards N] [--cache F] [--compat-words]"
+                    + " | --bytes [--no-simd]"
+                    + " | --approx E [--shards N] [--cache F] [--compat-words]"
+                    + " | [--shards N] [--cache F] [--compat-words] [--spill MB [--spill-dir D]]]");
+            return;
+        }
+        if (noSimd)
+            ByteScanner.setVectorized(false);
+        if (checkpointEvery == 0)
+            checkpointEvery = DEFAULT_CHECKPOINT_PAGES;
+
         System.out.println("Running with " + maxPages + " pages, file: " + fileName);
         
-        long start = System.currentTimeMillis();
-        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
-        long cpuTimeBefore = bean.getCurrentThreadCpuTime();
-        Runtime runtime = Runtime.getRuntime();
-        runtime.gc();
-        long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
-        Iterable<Page> pages = new Pages(maxPages, fileName);
+        // With --cache, pages are read pre-tokenized; building a missing or stale cache is not measured
+        TokenCache cache = cacheFile != null ? TokenCache.open(cacheFile, fileName, compatWords) : null;
+        Metrics metrics = new Metrics("Sequential", 1, maxPages, args);
+        // Live progress as the MXBean sismd:type=Progress and, with --http, as JSON on localhost
+        Progress progress = Progress.start("Sequential", topN);
+        if (httpPort >= 0)
+            progress.serve(httpPort);
+        if (storeFile != null) {
+            countIntoStore(maxPages, fileName, compatWords, topN, storeFile, checkpointEvery, metrics, progress);
+        } else if (indexFile != null) {
+            buildIndex(maxPages, fileName, shards, new IndexBuilder(compatWords), indexFile, metrics, progress);
+        } else if (ngram > 1) {
+            countNGrams(maxPages, fileName, shards, new NGramMapReduce(ngram, compatWords), topN, cache, metrics, progress);
+        } else if (bytes) {
+            countBytes(maxPages, fileName, topN, metrics, progress);
+        } else {
+            // With --spill, the counter goes to a sorted run on disk whenever it reaches the budget
+            SpillingCounts spill = spillMegabytes > 0 ? new SpillingCounts((long) spillMegabytes << 20, 1, spillDir) : null;
+            countStrings(maxPages, fileName, shards, compatWords, topN, epsilon, cache, spill, metrics, progress);
+        }
+        progress.close();
+        if (metricsFile != null)
+            metrics.write(metricsFile);
+    }
+
+    private static void countStrings(int maxPages, String fileName, int shards, boolean compatWords, int topN,
+                                     double epsilon, TokenCache cache, SpillingCounts spill, Metrics metrics,
+                                     Progress progress) {
+        Iterable<Page> pages = progress.track(metrics.timed(Metrics.Stage.PARSE, cache != null ? cache.pages(maxPages)
+                : shards > 1 ? new ShardedPages(maxPages, fileName, shards)
+                : new Pages(maxPages, fileName)), Progress::size);
+        Tokenizer tokenizer = new Tokenizer(compatWords);
+        // With --approx only a fixed-size heavy-hitter summary is kept, fed one page at a time
+        HeavyHitters heavyHitters = epsilon > 0 ? new HeavyHitters(epsilon) : null;
         int processedPages = 0;
         for(Page page: pages) {
             if(page == null)
                 break;
-            Iterable<String> words = new Words(page.getText());
-            for (String word: words)
-                if(word.length()>1 || word.equals("a") || word.equals("I"))
-                    countWord(word);
+            long countStart = System.nanoTime();
+            if (heavyHitters != null) {
+                WordCounter pageCounts = new WordCounter();
+                tokenizer.forEachWord(page, pageCounts::add);
+                heavyHitters.addAll(pageCounts);
+            } else {
+                tokenizer.forEachWord(page, Sequential::countWord);
+                if (spill != null)
+                    spill.spillIfFull(counts);
+            }
+            metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart);
             ++processedPages;
+            // Only this thread may read the counts, so it takes the snapshot when a reader asked for one
+            if (progress.snapshotWanted()) {
+                if (heavyHitters != null)
+                    progress.publish(-1, heavyHitters.top(topN));
+                else if (spill == null)
+                    progress.publish(counts);
+            }
+        }
+        // The k-way merge of the runs computes the top words on its way through
+        List<Map.Entry<String, Long>> spilledTop = new ArrayList<>();
+        if (spill != null) {
+            metrics.time(Metrics.Stage.MERGE, () -> {
+                spill.spill(counts);
+                spilledTop.addAll(spill.top(topN));
+            });
+        }
+        metrics.stop();
+        System.out.println("Processed pages: " + processedPages);
+        metrics.print();
+
+        metrics.time(Metrics.Stage.REPORT, () -> {
+            if (spill != null) {
+                spilledTop.forEach(x -> System.out.println("Word: '" +x.getKey()+ "' with total " +x.getValue()+" occurrences!"));
+            } else if (heavyHitters != null) {
+                System.out.println("Approximate counts, error bound: " + heavyHitters.getErrorBound());
+                heavyHitters.top(topN).forEach(x -> System.out.println("Word: '" +x.getKey()+ "' with total " +x.getValue()+" occurrences!"));
+            } else {
+                TopK.of(counts, topN).forEach(x -> System.out.println("Word: '" +x.getKey()+ "' with total " +x.getValue()+" occurrences!"));
+            }
+        });
+    }
+
+    // With --ngram 2 or 3, counts phrases of consecutive words instead of single words
+    private static void countNGrams(int maxPages, String fileName, int shards, NGramMapReduce ngrams, int topN,
+                                    TokenCache cache, Metrics metrics, Progress progress) {
+        Iterable<Page> pages = progress.track(metrics.timed(Metrics.Stage.PARSE, cache != null ? cache.pages(maxPages)
+                : shards > 1 ? new ShardedPages(maxPages, fileName, shards)
+                : new Pages(maxPages, fileName)), Progress::size);
+        int processedPages = 0;
+        for (Page page : pages) {
+            if (page == null)
+                break;
+            long countStart = System.nanoTime();
+            ngrams.map(page);
+            metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart);
+            ++processedPages;
+        }
+        metrics.time(Metrics.Stage.MERGE, ngrams::getCounts);
+        metrics.stop();
+        System.out.println("Processed pages: " + processedPages);
+        metrics.print();
+        metrics.time(Metrics.Stage.REPORT, () -> ngrams.printTopPhrases(topN));
+    }
+
+    /*  With --index, writes which pages every word occurs on to indexFile (see QueryIndex)
+        instead of counting. Pages come from the dump even with --cache, which keeps no titles.
+    */
+    private static void buildIndex(int maxPages, String fileName, int shards, IndexBuilder index, String indexFile,
+                                   Metrics metrics, Progress progress) {
+        Iterable<Page> pages = progress.track(metrics.timed(Metrics.Stage.PARSE, shards > 1
+                ? new ShardedPages(maxPages, fileName, shards)
+                : new Pages(maxPages, fileName)), Progress::size);
+        int processedPages = 0;
+        for (Page page : pages) {
+            if (page == null)
+                break;
+            int id = index.page(page.getTitle());
+            long countStart = System.nanoTime();
+            index.map(id, page);
+            metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart);
+            ++processedPages;
+        }
+        long mergeStart = System.nanoTime();
+        long[] written;
+        try {
+            written = index.write(indexFile, 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        metrics.add(Metrics.Stage.MERGE, System.nanoTime() - mergeStart);
+        metrics.stop();
+        System.out.println("Processed pages: " + processedPages);
+        metrics.print();
+        System.out.println("Index " + indexFile + ": " + written[0] + " words, " + written[1] + " postings, "
+                + written[2] + " bytes");
+    }
+
+    // UTF-8 path: pages are slices of the mapped file and words are counted as byte ranges
+    private static void countBytes(int maxPages, String fileName, int topN, Metrics metrics, Progress progress) {
+        System.out.println("Byte scanning: " + ByteScanner.describe());
+        ByteTokenizer tokenizer = new ByteTokenizer();
+        ByteWordCounter byteCounts = new ByteWordCounter();
+        int processedPages = 0;
+        for (BytePage page : progress.track(metrics.timed(Metrics.Stage.PARSE, new BytePages(maxPages, fileName)),
+                page -> page.getText().remaining())) {
+            long countStart = System.nanoTime();
+            tokenizer.forEachWord(page.getText(), byteCounts::add);
+            metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart);
+            ++processedPages;
+            if (progress.snapshotWanted())
+                progress.publish(byteCounts.size(), byteCounts.top(topN));
+        }
+        metrics.stop();
+        System.out.println("Processed pages: " + processedPages);
+        metrics.print();
+        metrics.time(Metrics.Stage.REPORT, () -> byteCounts.top(topN)
+                .forEach(x -> System.out.println("Word: '" +x.getKey()+ "' with total " +x.getValue()+" occurrences!")));
+    }
+
+    /*  Continues from the checkpoint in storeFile and merges the new counts into it every
+        checkpointEvery pages, so a crash loses at most that many pages of work and a later
+        run only reads pages appended to the dump since.
+    */
+    private static void countIntoStore(int maxPages, String fileName, boolean compatWords, int topN,
+                                       String storeFile, int checkpointEvery, Metrics metrics, Progress progress) {
+        try {
+            WordStore store = WordStore.exists(storeFile) ? WordStore.open(storeFile) : null;
+            if (store != null && !store.continues(fileName)) {
+                System.out.println("Store " + storeFile + " was counted from another dump, starting over");
+                store = null;
+            }
+            long startOffset = store == null ? 0 : store.checkpointOffset();
+            long totalPages = store == null ? 0 : store.pages();
+            System.out.println("Resuming at byte " + startOffset + " after " + totalPages + " pages");
+
+            ResumablePages resumable = new ResumablePages(maxPages, fileName, startOffset);
+            Tokenizer tokenizer = new Tokenizer(compatWords);
+            int processedPages = 0;
+            for (Page page : progress.track(metrics.timed(Metrics.Stage.PARSE, resumable), Progress::size)) {
+                long countStart = System.nanoTime();
+                tokenizer.forEachWord(page.getText(), Sequential::countWord);
+                metrics.add(Metrics.Stage.COUNT, System.nanoTime() - countStart);
+                ++processedPages;
+                if (processedPages % checkpointEvery == 0) {
+                    long mergeStart = System.nanoTime();
+                    store = WordStore.update(storeFile, store, counts, resumable.offset(), totalPages + processedPages, fileName);
+                    counts.clear();
+                    metrics.add(Metrics.Stage.MERGE, System.nanoTime() - mergeStart);
+                }
+            }
+            long mergeStart = System.nanoTime();
+            if (store == null || counts.size() > 0 || resumable.offset() != startOffset) {
+                store = WordStore.update(storeFile, store, counts, resumable.offset(), totalPages + processedPages, fileName);
+                counts.clear();
+            }
+            metrics.add(Metrics.Stage.MERGE, System.nanoTime() - mergeStart);
+            metrics.stop();
+            System.out.println("Processed pages: " + processedPages + ", stored pages: " + store.pages()
+                    + ", distinct words: " + store.size());
+            metrics.print();
+
+            long reportStart = System.nanoTime();
+            store.top(topN).forEach(x -> System.out.println("Word: '" +x.getKey()+ "' with total " +x.getValue()+" occurrences!"));
+            metrics.add(Metrics.Stage.REPORT, System.nanoTime() - reportStart);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        long end = System.currentTimeMillis();
-        long memoryAfter = runtime.totalMemory() - runtime.freeMemory();
-        long cpuTimeAfter = bean.getCurrentThreadCpuTime();        System.out.println("Processed pages: " + processedPages);
-        System.out.println("Elapsed time: " + (end - start) + "ms");
-        System.out.println("Usage Memory: " + (memoryAfter - memoryBefore) + " bytes");
-        System.out.println(String.format(Locale.US, "Usage Cpu Time %.8f seconds", (cpuTimeAfter - cpuTimeBefore) / 1_000_000_000.0));
-
-        LinkedHashMap<String, Integer> commonWords = new LinkedHashMap<>();
-        counts.entrySet().stream().sorted(Map.Entry.comparingByValue(Comparator.reverseOrder())) .forEachOrdered(x -> commonWords.put(x.getKey(), x.getValue()));
-        commonWords.entrySet().stream().limit(3).toList().forEach(x -> System.out.println("Word: '" +x.getKey()+ "' with total " +x.getValue()+" occurrences!"));
     }
 
-    private static void countWord(String word) {
-        counts.merge(word, 1, Integer::sum);
+    private static void countWord(char[] chars, int offset, int length) {
+        counts.add(chars, offset, length);
     }
 }
@@ -0,0 +1,39 @@
+import common.ShardWorker;
+
+import java.io.IOException;
+
+/*  Counts the byte shards a Coordinator hands out and sends the partial counts back. */
+public class Worker {
+    static final String DEFAULT_ENGINE = ShardWorker.SEQUENTIAL;
+
+    public static void main(String[] args) throws IOException {
+        String host = "localhost";
+        int port = -1;
+        String engine = DEFAULT_ENGINE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean compatWords = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--connect") && i + 1 < args.length) {
+                String address = args[i + 1];
+                int colon = address.lastIndexOf(':');
+                host = colon > 0 ? address.substring(0, colon) : "localhost";
+                port = Integer.parseInt(address.substring(colon + 1));
+                i++; // Consume value
+            } else if (args[i].equals("--engine") && i + 1 < args.length) {
+                engine = args[i + 1];
+                i++; // Consume value
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[i + 1]);
+                i++; // Consume value
+            } else if (args[i].equals("--compat-words")) {
+                compatWords = true;
+            }
+        }
+        if (port < 0) {
+            System.out.println("Usage: Worker --connect host:port [--engine sequential|forkjoin|threadpool] [--threads N] [--compat-words]");
+            return;
+        }
+
+        new ShardWorker(engine, threads, compatWords).run(host, port);
+    }
+}
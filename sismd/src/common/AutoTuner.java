@@ -0,0 +1,139 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/*  Picks parallelism, leaf size and batch size for this machine and corpus by counting a
+    sample from the start of the dump before the measured run (--auto in the engines).
+
+    Parallelism doubles from 1 up to twice the core count and stops at the smallest value
+    within TOLERANCE of the best throughput seen, so hyperthreads or a busy machine do not
+    buy threads that add nothing. Leaf sizes are then tried at that parallelism. A batch
+    holds about one leaf worth of pages at the average page length of the sample, so a
+    batch handed to a thread costs about as much as a ForkJoin leaf. Every setting is
+    timed as the best of REPEATS runs of WordCountRecursiveTask over the sample, after a
+    few warm-up runs; the other engines count pages the same way (tokenizer into a
+    WordCounter).
+*/
+public class AutoTuner {
+
+    private static final int SAMPLE_PAGES = 5000;
+    private static final long SAMPLE_CHARS = 8L << 20;
+    private static final int REPEATS = 3;
+    private static final int WARMUP_RUNS = 5;
+    private static final double TOLERANCE = 0.05;
+    private static final int[] LEAF_SIZES = { 1 << 14, 1 << 16, 1 << 18, 1 << 20 };
+
+    private final int parallelism;
+    private final int leafSize;
+    private final int batchSize;
+    private final int samplePages;
+    private final long sampleChars;
+    private final double charsPerSecond;
+
+    private AutoTuner(int parallelism, int leafSize, int batchSize, int samplePages, long sampleChars, double charsPerSecond) {
+        this.parallelism = parallelism;
+        this.leafSize = leafSize;
+        this.batchSize = batchSize;
+        this.samplePages = samplePages;
+        this.sampleChars = sampleChars;
+        this.charsPerSecond = charsPerSecond;
+    }
+
+    public static AutoTuner calibrate(Iterable<Page> source, boolean compatWords) {
+        List<Page> sample = new ArrayList<>();
+        long chars = 0;
+        Iterator<Page> pages = source.iterator();
+        try {
+            while (pages.hasNext()) {
+                Page page = pages.next();
+                if (page == null || sample.size() == SAMPLE_PAGES || chars >= SAMPLE_CHARS)
+                    break;
+                sample.add(page);
+                chars += page.getTextLength();
+            }
+        } finally {
+            // The rest of the dump is not read; let a source that holds workers or files go
+            if (pages instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        if (sample.isEmpty()) {
+            return new AutoTuner(1, WordCountRecursiveTask.DEFAULT_THRESHOLD, 1, 0, 0, 0);
+        }
+
+        // Compile the counting path first, or the settings tried last would look best
+        throughput(sample, chars, compatWords, 1, WordCountRecursiveTask.DEFAULT_THRESHOLD, WARMUP_RUNS);
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> parallelisms = new ArrayList<>();
+        List<Double> throughputs = new ArrayList<>();
+        double best = 0;
+        for (int p = 1; p <= 2 * cores; p *= 2) {
+            double throughput = throughput(sample, chars, compatWords, p, WordCountRecursiveTask.DEFAULT_THRESHOLD, REPEATS);
+            System.out.printf("Calibration: %d threads, %.1fM chars/s%n", p, throughput / 1e6);
+            parallelisms.add(p);
+            throughputs.add(throughput);
+            best = Math.max(best, throughput);
+        }
+        // Judged against the best of all, so gains in small steps still add up
+        int bestParallelism = 1;
+        for (int i = 0; i < parallelisms.size(); i++) {
+            if (throughputs.get(i) >= best / (1 + TOLERANCE)) {
+                bestParallelism = parallelisms.get(i);
+                break;
+            }
+        }
+
+        int bestLeafSize = WordCountRecursiveTask.DEFAULT_THRESHOLD;
+        best = 0;
+        for (int leafSize : LEAF_SIZES) {
+            double throughput = throughput(sample, chars, compatWords, bestParallelism, leafSize, REPEATS);
+            System.out.printf("Calibration: leaf size %d chars, %.1fM chars/s%n", leafSize, throughput / 1e6);
+            if (throughput > best) {
+                best = throughput;
+                bestLeafSize = leafSize;
+            }
+        }
+
+        long averagePage = Math.max(1, chars / sample.size());
+        int batchSize = (int) Math.max(1, Math.min(SAMPLE_PAGES, bestLeafSize / averagePage));
+        return new AutoTuner(bestParallelism, bestLeafSize, batchSize, sample.size(), chars, best);
+    }
+
+    public int parallelism() { return parallelism; }
+
+    public int leafSize() { return leafSize; }
+
+    public int batchSize() { return batchSize; }
+
+    /* The chosen settings as flags, so a run can be pinned to them later. */
+    public void print() {
+        System.out.printf("Auto-tuned on %d pages (%d chars, %.1fM chars/s): --threads %d --batch %d --leaf-size %d%n",
+                samplePages, sampleChars, charsPerSecond / 1e6, parallelism, batchSize, leafSize);
+    }
+
+    private static double throughput(List<Page> sample, long chars, boolean compatWords, int parallelism, int leafSize,
+                                     int runs) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            long fastest = Long.MAX_VALUE;
+            for (int run = 0; run <= runs; run++) {
+                long start = System.nanoTime();
+                pool.invoke(new WordCountRecursiveTask(sample, compatWords, null, leafSize));
+                long elapsed = System.nanoTime() - start;
+                if (run > 0) {
+                    fastest = Math.min(fastest, elapsed);
+                }
+            }
+            return chars * 1e9 / Math.max(1, fastest);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package common;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*  MapReduce over BytePages: every text is tokenized as UTF-8 into a pooled
+    ByteWordCounter, and the counters are merged once the workers are done, so a word is
+    only ever decoded if it ends up in the printed top list. Tokenizers are pooled the same
+    way, so one-shot virtual threads do not each build one.
+*/
+public class ByteMapReduce {
+
+    private final Queue<ByteTokenizer> idleTokenizers = new ConcurrentLinkedQueue<>();
+    private final Queue<ByteWordCounter> workerCounts = new ConcurrentLinkedQueue<>();
+    private final Queue<ByteWordCounter> idleCounts = new ConcurrentLinkedQueue<>();
+    private final ByteWordCounter total = new ByteWordCounter();
+
+    public void map(BytePage page) {
+        ByteWordCounter counter = idleCounts.poll();
+        if (counter == null) {
+            counter = new ByteWordCounter();
+            workerCounts.add(counter);
+        }
+        ByteTokenizer tokenizer = idleTokenizers.poll();
+        if (tokenizer == null) {
+            tokenizer = new ByteTokenizer();
+        }
+        tokenizer.forEachWord(page.getText(), counter::add);
+        idleTokenizers.offer(tokenizer);
+        idleCounts.offer(counter);
+    }
+
+    public ByteWordCounter getCounts() {
+        reduce();
+        return total;
+    }
+
+    public void printTopWords(int topN) {
+        List<Map.Entry<String, Integer>> top = getCounts().top(topN);
+        top.forEach(entry -> System.out
+                .println("Word: '" + entry.getKey() + "' occurred " + entry.getValue() + " times!"));
+    }
+
+    // Must run after the map() calls it should see have completed (e.g. after join/awaitTermination)
+    private synchronized void reduce() {
+        for (ByteWordCounter counter : workerCounts) {
+            total.addAll(counter);
+            counter.clear();
+        }
+    }
+}
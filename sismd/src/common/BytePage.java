@@ -0,0 +1,17 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* A page whose title and text are read-only UTF-8 views into the mapped dump, still XML-escaped. */
+public class BytePage {
+  private final ByteBuffer title;
+  private final ByteBuffer text;
+
+  public BytePage(ByteBuffer title, ByteBuffer text) { this.title = title; this.text = text; }
+
+  public ByteBuffer getTitle() { return title.duplicate(); }
+  public ByteBuffer getText() { return text.duplicate(); }
+
+  public String getTitleString() { return StandardCharsets.UTF_8.decode(getTitle()).toString(); }
+}
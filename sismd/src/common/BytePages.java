@@ -0,0 +1,186 @@
+package common;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*  Byte-level counterpart of Pages: maps the dump and finds <title> and <text> by scanning
+    for the tags, handing out each page as slices of the mapping without decoding anything.
+    Escapes such as &amp; are left in place for ByteTokenizer to skip.
+
+    With the Vector API available (see ByteScanner) the tags are searched in windows
+    copied out of the mapping, since vectors load from arrays; otherwise byte by byte.
+*/
+public class BytePages implements Iterable<BytePage> {
+
+  private static final byte[] PAGE_OPEN = "<page".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PAGE_CLOSE = "</page>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TITLE_OPEN = "<title>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TITLE_CLOSE = "</title>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TEXT_OPEN = "<text".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TEXT_CLOSE = "</text>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TAG_END = {'>'};
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+  private static final int WINDOW = 8192;
+
+  private final int maxPages;
+  private final String fileName;
+
+  public BytePages(int maxPages, String fileName) {
+    this.maxPages = maxPages;
+    this.fileName = fileName;
+  }
+
+  private class BytePageIterator implements Iterator<BytePage> {
+
+    private final FileChannel channel;
+    private final long[] bounds;
+    private final byte[] window = new byte[WINDOW];
+    private int range;
+    private ByteBuffer buffer;
+    private int position;
+    private int remainingPages;
+    private BytePage next;
+
+    BytePageIterator() throws IOException {
+      remainingPages = maxPages;
+      System.out.println("Max pages: " + maxPages);
+      channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+      bounds = ShardedPages.split(channel, 1);
+    }
+
+    public boolean hasNext() {
+      while (next == null && remainingPages > 0) {
+        if (buffer == null && !mapNextRange())
+          break;
+        next = readPage();
+        if (next == null)
+          buffer = null;
+      }
+      if (next == null)
+        close();
+      return next != null;
+    }
+
+    public BytePage next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      BytePage page = next;
+      next = null;
+      --remainingPages;
+      return page;
+    }
+
+    private boolean mapNextRange() {
+      try {
+        while (range + 1 < bounds.length) {
+          long start = bounds[range];
+          long end = bounds[++range];
+          if (start < end) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            position = 0;
+            return true;
+          }
+        }
+        return false;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private BytePage readPage() {
+      int pageStart = indexOf(buffer, PAGE_OPEN, position, buffer.limit());
+      if (pageStart < 0)
+        return null;
+      int pageEnd = indexOf(buffer, PAGE_CLOSE, pageStart, buffer.limit());
+      if (pageEnd < 0)
+        return null;
+      position = pageEnd + PAGE_CLOSE.length;
+
+      ByteBuffer title = EMPTY;
+      int titleStart = indexOf(buffer, TITLE_OPEN, pageStart, pageEnd);
+      if (titleStart >= 0) {
+        titleStart += TITLE_OPEN.length;
+        int titleEnd = indexOf(buffer, TITLE_CLOSE, titleStart, pageEnd);
+        if (titleEnd >= 0)
+          title = slice(titleStart, titleEnd);
+      }
+
+      ByteBuffer text = EMPTY;
+      int textTag = indexOf(buffer, TEXT_OPEN, pageStart, pageEnd);
+      while (textTag >= 0 && !isTagEnd(buffer.get(textTag + TEXT_OPEN.length)))
+        textTag = indexOf(buffer, TEXT_OPEN, textTag + 1, pageEnd);
+      if (textTag >= 0) {
+        int tagEnd = indexOf(buffer, TAG_END, textTag, pageEnd);
+        if (tagEnd > 0 && buffer.get(tagEnd - 1) != '/') {
+          int textEnd = indexOf(buffer, TEXT_CLOSE, tagEnd + 1, pageEnd);
+          if (textEnd >= 0)
+            text = slice(tagEnd + 1, textEnd);
+        }
+      }
+      return new BytePage(title, text);
+    }
+
+    private int indexOf(ByteBuffer buffer, byte[] pattern, int from, int limit) {
+      if (!ByteScanner.vectorized())
+        return BytePages.indexOf(buffer, pattern, from, limit);
+      // Consecutive windows overlap by pattern.length - 1 so no match straddles two of them
+      while (from + pattern.length <= limit) {
+        int length = Math.min(window.length, limit - from);
+        buffer.get(from, window, 0, length);
+        int at = ByteScanner.indexOf(window, pattern, 0, length);
+        if (at >= 0)
+          return from + at;
+        if (from + length == limit)
+          break;
+        from += length - pattern.length + 1;
+      }
+      return -1;
+    }
+
+    private ByteBuffer slice(int from, int to) {
+      return buffer.slice(from, to - from).asReadOnlyBuffer();
+    }
+
+    private void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private static boolean isTagEnd(byte b) {
+    return b == '>' || b == '/' || b == ' ' || b == '\n' || b == '\t' || b == '\r';
+  }
+
+  private static int indexOf(ByteBuffer buffer, byte[] pattern, int from, int limit) {
+    byte first = pattern[0];
+    for (int i = from; i + pattern.length <= limit; i++) {
+      if (buffer.get(i) != first)
+        continue;
+      int j = 1;
+      while (j < pattern.length && buffer.get(i + j) == pattern[j])
+        j++;
+      if (j == pattern.length)
+        return i;
+    }
+    return -1;
+  }
+
+  public Iterator<BytePage> iterator() {
+    try {
+      return new BytePageIterator();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package common;
+
+/*  Byte scanning behind BytePages and ByteTokenizer: finding a tag in the raw dump and
+    skipping runs of ASCII separators or ASCII letters/digits. When the JVM runs with
+    --add-modules jdk.incubator.vector, VectorByteScanner classifies a whole vector of
+    bytes (16 to 64, whatever the CPU offers) per step and the runs are read off the
+    resulting bit masks; otherwise, or after setVectorized(false), the same answers come
+    from plain byte loops.
+
+    A vector run stops at the first byte that is not ASCII (or is '&'), so UTF-8 and
+    entities are always left to ByteTokenizer's scalar classify().
+
+    The static methods are thread-safe; an instance caches the masks of the last block it
+    classified and is not.
+*/
+public class ByteScanner {
+
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && VectorByteScanner.supported();
+    private static boolean vectorized = AVAILABLE;
+
+    private final long[] masks = new long[2];
+    private final int lanes = AVAILABLE ? VectorByteScanner.lanes() : 0;
+    private final long valid = lanes == 64 ? -1L : (1L << lanes) - 1;
+    private int base;
+    private int limit;
+
+    /* Whether the vector path is taken; never true without the jdk.incubator.vector module. */
+    public static boolean vectorized() {
+        return vectorized;
+    }
+
+    // Set before any scanning starts (e.g. from --no-simd); threads read it unsynchronized
+    public static void setVectorized(boolean on) {
+        vectorized = on && AVAILABLE;
+    }
+
+    public static String describe() {
+        return vectorized ? "vector, " + VectorByteScanner.lanes() + " bytes per step"
+                : AVAILABLE ? "scalar (disabled)" : "scalar (no jdk.incubator.vector)";
+    }
+
+    /* Index of the first occurrence of pattern in bytes[from, to), or -1. */
+    public static int indexOf(byte[] bytes, byte[] pattern, int from, int to) {
+        // The vector search returns a match, -1, or where its last partial block starts
+        int i = vectorized ? VectorByteScanner.indexOf(bytes, pattern, from, to) : from;
+        if (i < 0) {
+            return -1;
+        }
+        byte first = pattern[0];
+        for (; i + pattern.length <= to; i++) {
+            if (bytes[i] == first && matches(bytes, i, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean matches(byte[] bytes, int at, byte[] pattern) {
+        for (int j = 1; j < pattern.length; j++) {
+            if (bytes[at + j] != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Forgets the cached block; call whenever the array or its contents change. */
+    public void reset() {
+        base = 0;
+        limit = 0;
+    }
+
+    /* First index >= i in [i, end) that is not an ASCII separator: an ASCII letter or digit, '&' or a non-ASCII byte. */
+    public int skipSeparators(byte[] bytes, int i, int end) {
+        while (vectorized && i < end) {
+            if (i >= limit && !load(bytes, i, end)) {
+                break;
+            }
+            long stops = (masks[0] | masks[1]) >>> (i - base);
+            if (stops != 0) {
+                return i + Long.numberOfTrailingZeros(stops);
+            }
+            i = limit;
+        }
+        byte b;
+        while (i < end && (b = bytes[i]) >= 0 && b != '&' && !isWordByte(b)) {
+            i++;
+        }
+        return i;
+    }
+
+    /* First index >= i in [i, end) that is not an ASCII letter or digit. */
+    public int skipWordBytes(byte[] bytes, int i, int end) {
+        while (vectorized && i < end) {
+            if (i >= limit && !load(bytes, i, end)) {
+                break;
+            }
+            long stops = (~masks[0] & valid) >>> (i - base);
+            if (stops != 0) {
+                return i + Long.numberOfTrailingZeros(stops);
+            }
+            i = limit;
+        }
+        byte b;
+        while (i < end && (b = bytes[i]) >= 0 && isWordByte(b)) {
+            i++;
+        }
+        return i;
+    }
+
+    // Classifies bytes[i, i + lanes) into masks; the last partial block is left to the scalar loops
+    private boolean load(byte[] bytes, int i, int end) {
+        if (i + lanes > end) {
+            return false;
+        }
+        VectorByteScanner.classify(bytes, i, masks);
+        base = i;
+        limit = i + lanes;
+        return true;
+    }
+
+    private static boolean isWordByte(byte b) {
+        return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,179 @@
+package common;
+
+import java.nio.ByteBuffer;
+
+/*  Tokenizer over raw UTF-8 bytes. ASCII is classified with a lookup table; other code
+    points are decoded in place only to ask Character whether they are letters or digits,
+    and words are handed to a ByteWordSink as byte ranges, so nothing is decoded into a
+    String or char[]. Runs of ASCII separators and ASCII word bytes are skipped through a
+    ByteScanner, a vector of bytes at a time when the Vector API is available.
+
+    It applies the same rules as Tokenizer's default mode. Supplementary code points are
+    separators, like the surrogate chars Tokenizer sees, and XML entities (&amp; &quot;
+    &#39; ...) are skipped as one separator because the text is still escaped.
+    Invalid UTF-8 bytes are separators as well.
+
+    Instances reuse their buffer and are not thread-safe.
+*/
+public class ByteTokenizer {
+
+    public interface ByteWordSink {
+        void accept(byte[] bytes, int offset, int length);
+    }
+
+    private static final int OTHER = 0;
+    private static final int LETTER = 1;
+    private static final int DIGIT = 2;
+    private static final int MAX_ENTITY = 12;
+    private static final byte[] ASCII = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            ASCII[c] = (byte) (Character.isLetter(c) ? LETTER : Character.isDigit(c) ? DIGIT : OTHER);
+        }
+    }
+
+    private byte[] buffer = new byte[4096];
+    private final ByteScanner scanner = new ByteScanner();
+
+    public void forEachWord(ByteBuffer text, ByteWordSink sink) {
+        int length = text.remaining();
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        text.get(text.position(), buffer, 0, length);
+        Tokenizer.counted(forEachWord(scanner, buffer, 0, length, sink));
+    }
+
+    /* Returns how many words went to sink. */
+    public static int forEachWord(byte[] bytes, int offset, int length, ByteWordSink sink) {
+        return forEachWord(new ByteScanner(), bytes, offset, length, sink);
+    }
+
+    private static int forEachWord(ByteScanner scanner, byte[] bytes, int offset, int length, ByteWordSink sink) {
+        scanner.reset();
+        int words = 0;
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            // ASCII fast paths: skip separators and take word bytes without classify()
+            i = scanner.skipSeparators(bytes, i, end);
+            if (i == end) {
+                break;
+            }
+            int c = classify(bytes, i, end);
+            if (kind(c) == OTHER) {
+                i += width(c);
+                continue;
+            }
+            int start = i;
+            int chars = 1;
+            int last = kind(c);
+            i += width(c);
+            while (i < end) {
+                int run = scanner.skipWordBytes(bytes, i, end);
+                if (run > i) {
+                    last = ASCII[bytes[run - 1]];
+                    chars += run - i;
+                    i = run;
+                    continue;
+                }
+                c = classify(bytes, i, end);
+                if (kind(c) != OTHER) {
+                    last = kind(c);
+                    i += width(c);
+                    chars++;
+                } else if (i + 1 < end && joins(last, bytes[i], kind(c = classify(bytes, i + 1, end)))) {
+                    last = kind(c);
+                    i += 1 + width(c);
+                    chars += 2;
+                } else {
+                    break;
+                }
+            }
+            if (chars > 1 || (i - start == 1 && (bytes[start] == 'a' || bytes[start] == 'I'))) {
+                sink.accept(bytes, start, i - start);
+                words++;
+            }
+        }
+        return words;
+    }
+
+    private static boolean joins(int before, byte c, int after) {
+        switch (c) {
+            case '_':
+                return after != OTHER;
+            case '.':
+                return before == after && after != OTHER;
+            case '\'':
+            case '-':
+                return before == LETTER && after == LETTER;
+            case ',':
+                return before == DIGIT && after == DIGIT;
+            default:
+                return false;
+        }
+    }
+
+    /* Class of the code point (or entity) at i in the low two bits, its width in bytes above them. */
+    private static int classify(byte[] bytes, int i, int end) {
+        int b = bytes[i];
+        if (b >= 0) {
+            if (b == '&') {
+                return entityWidth(bytes, i, end) << 2 | OTHER;
+            }
+            return 1 << 2 | ASCII[b];
+        }
+        int codePoint;
+        int width;
+        if ((b & 0xE0) == 0xC0) {
+            codePoint = b & 0x1F;
+            width = 2;
+        } else if ((b & 0xF0) == 0xE0) {
+            codePoint = b & 0x0F;
+            width = 3;
+        } else if ((b & 0xF8) == 0xF0) {
+            width = 4;
+            codePoint = -1; // supplementary: never a word char, as for a lone surrogate
+        } else {
+            return 1 << 2 | OTHER;
+        }
+        if (i + width > end) {
+            return 1 << 2 | OTHER;
+        }
+        for (int j = 1; j < width; j++) {
+            if ((bytes[i + j] & 0xC0) != 0x80) {
+                return 1 << 2 | OTHER;
+            }
+            codePoint = codePoint << 6 | (bytes[i + j] & 0x3F);
+        }
+        if (width == 4) {
+            return 4 << 2 | OTHER;
+        }
+        int kind = Character.isLetter(codePoint) ? LETTER : Character.isDigit(codePoint) ? DIGIT : OTHER;
+        return width << 2 | kind;
+    }
+
+    // "&name;" or "&#123;" counts as one separator; a bare '&' is just one byte
+    private static int entityWidth(byte[] bytes, int i, int end) {
+        int limit = Math.min(end, i + MAX_ENTITY);
+        for (int j = i + 1; j < limit; j++) {
+            byte b = bytes[j];
+            if (b == ';') {
+                return j > i + 1 ? j - i + 1 : 1;
+            }
+            if (b < 0 || ASCII[b] == OTHER && b != '#') {
+                return 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int kind(int c) {
+        return c & 3;
+    }
+
+    private static int width(int c) {
+        return c >>> 2;
+    }
+}
@@ -0,0 +1,228 @@
+package common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/*  UTF-8 counterpart of WordCounter: keys are copied once into a growing byte arena and
+    referenced by (offset, length), so a distinct word costs its bytes plus four ints and
+    no object at all. Strings are only created by forEach() and for the winners of top().
+
+    Not thread-safe: one counter per thread, combined with addAll().
+*/
+public class ByteWordCounter {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private byte[] arena = new byte[1024];
+    private int arenaSize;
+    private int[] offsets;
+    private int[] lengths;
+    private int[] hashes;
+    private int[] counts; // 0 marks a free slot
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    public ByteWordCounter() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public void add(byte[] bytes, int offset, int length) {
+        add(bytes, offset, length, 1);
+    }
+
+    public void add(byte[] bytes, int offset, int length, int count) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        add(bytes, offset, length, hash, count);
+    }
+
+    public int get(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        int hash = 0;
+        for (byte b : bytes) {
+            hash = 31 * hash + b;
+        }
+        for (int slot = slot(hash); counts[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && equals(slot, bytes, 0, bytes.length)) {
+                return counts[slot];
+            }
+        }
+        return 0;
+    }
+
+    /* Adds every count of other into this counter, reusing its cached hashes. */
+    public void addAll(ByteWordCounter other) {
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] != 0) {
+                add(other.arena, other.offsets[i], other.lengths[i], other.hashes[i], other.counts[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        arena = new byte[1024];
+        arenaSize = 0;
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    public void forEach(ObjIntConsumer<String> action) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                action.accept(key(i), counts[i]);
+            }
+        }
+    }
+
+    /*  The k most frequent words, ties in alphabetical order like TopK. Selection runs on
+        slot indices comparing raw bytes (UTF-8 byte order is code point order), so only
+        the k winners are decoded.
+    */
+    public List<Map.Entry<String, Integer>> top(int k) {
+        int[] heap = new int[Math.max(1, k)];
+        int heapSize = 0;
+        for (int i = 0; i < counts.length && k > 0; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (heapSize < k) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++);
+            } else if (compare(i, heap[0]) > 0) {
+                heap[0] = i;
+                siftDown(heap, heapSize);
+            }
+        }
+        List<Map.Entry<String, Integer>> result = new ArrayList<>(heapSize);
+        while (heapSize > 0) {
+            result.add(Map.entry(key(heap[0]), counts[heap[0]]));
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    private void add(byte[] bytes, int offset, int length, int hash, int count) {
+        int slot = slot(hash);
+        while (counts[slot] != 0) {
+            if (hashes[slot] == hash && equals(slot, bytes, offset, length)) {
+                counts[slot] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (arenaSize + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arenaSize + length, arena.length * 2));
+        }
+        System.arraycopy(bytes, offset, arena, arenaSize, length);
+        offsets[slot] = arenaSize;
+        lengths[slot] = length;
+        hashes[slot] = hash;
+        counts[slot] = count;
+        arenaSize += length;
+        if (++size > resizeAt) {
+            rehash();
+        }
+    }
+
+    private String key(int slot) {
+        return new String(arena, offsets[slot], lengths[slot], StandardCharsets.UTF_8);
+    }
+
+    // Higher count first, then the smaller key
+    private int compare(int a, int b) {
+        if (counts[a] != counts[b]) {
+            return Integer.compare(counts[a], counts[b]);
+        }
+        return -Arrays.compareUnsigned(arena, offsets[a], offsets[a] + lengths[a],
+                arena, offsets[b], offsets[b] + lengths[b]);
+    }
+
+    private void siftUp(int[] heap, int index) {
+        int slot = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (compare(slot, heap[parent]) >= 0) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = slot;
+    }
+
+    private void siftDown(int[] heap, int heapSize) {
+        if (heapSize == 0) {
+            return;
+        }
+        int index = 0;
+        int slot = heap[0];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && compare(heap[child + 1], heap[child]) < 0) {
+                child++;
+            }
+            if (compare(heap[child], slot) >= 0) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = slot;
+    }
+
+    private int slot(int hash) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ h >>> 16) & mask;
+    }
+
+    private void rehash() {
+        int[] oldOffsets = offsets;
+        int[] oldLengths = lengths;
+        int[] oldHashes = hashes;
+        int[] oldCounts = counts;
+        allocate(oldCounts.length << 1);
+        for (int i = 0; i < oldCounts.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = slot(oldHashes[i]);
+                while (counts[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                offsets[slot] = oldOffsets[i];
+                lengths[slot] = oldLengths[i];
+                hashes[slot] = oldHashes[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = capacity * 3 / 4;
+    }
+
+    private boolean equals(int slot, byte[] bytes, int offset, int length) {
+        return lengths[slot] == length
+                && Arrays.equals(arena, offsets[slot], offsets[slot] + length, bytes, offset, offset + length);
+    }
+}
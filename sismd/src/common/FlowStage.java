@@ -0,0 +1,209 @@
+package common;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*  One stage of a java.util.concurrent.Flow pipeline: items from the upstream publisher are
+    processed by `parallelism` threads of its own, and whatever the work emits is published
+    downstream through a SubmissionPublisher.
+
+    Backpressure is demand-driven: the stage requests `buffer` items when it subscribes and
+    one more each time an item is done, so at most `buffer` items wait in or run through
+    it. Emitting blocks while the downstream buffer is full, which stalls the workers, then
+    the demand, and finally the submit() of the stage before. The downstream buffer holds
+    `buffer` items too (rounded up to a power of two by SubmissionPublisher).
+
+    queueDepth() counts the items received but not started yet. Busy time is summed over
+    the stage's threads, so a stage whose utilization() is close to 1 while its queue stays
+    full is the one that limits the pipeline.
+*/
+public class FlowStage<I, O> implements Flow.Processor<I, O> {
+
+    public interface Work<I, O> {
+        void process(I item, Consumer<O> emit);
+    }
+
+    private final String name;
+    private final int parallelism;
+    private final int buffer;
+    private final Work<I, O> work;
+    private final ExecutorService workers;
+    private final SubmissionPublisher<O> downstream;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong done = new AtomicLong();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder emitted = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private volatile Flow.Subscription subscription;
+    private volatile boolean upstreamDone;
+    private volatile Throwable failure;
+    private volatile long firstNanos;
+    private volatile long lastNanos;
+    private long depthSamples;
+    private long depthSum;
+    private long maxDepth;
+
+    /* delivery runs the publisher's hand-off to the next stage; it does no work of its own. */
+    public FlowStage(String name, int parallelism, int buffer, Executor delivery, Work<I, O> work) {
+        this.name = name;
+        this.parallelism = Math.max(1, parallelism);
+        this.buffer = Math.max(1, buffer);
+        this.work = work;
+        ThreadFactory threads = Metrics.threadFactory();
+        AtomicInteger next = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = threads.newThread(runnable);
+            thread.setName(name + "-" + next.incrementAndGet());
+            return thread;
+        });
+        this.downstream = new SubmissionPublisher<>(delivery, this.buffer);
+    }
+
+    public String name() { return name; }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super O> subscriber) {
+        downstream.subscribe(subscriber);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(buffer);
+    }
+
+    @Override
+    public void onNext(I item) {
+        if (received.getAndIncrement() == 0) {
+            firstNanos = System.nanoTime();
+        }
+        workers.execute(() -> process(item));
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        finishIfDone();
+    }
+
+    /* Waits until every item has been processed and the stage has closed its publisher. */
+    public void await() {
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+        }
+        if (failure != null) {
+            throw new CompletionException("Stage " + name + " failed", failure);
+        }
+    }
+
+    public boolean failed() { return failure != null; }
+
+    public long done() { return done.get(); }
+
+    public long queueDepth() {
+        return Math.max(0, received.get() - started.sum());
+    }
+
+    /* Share of the stage's thread time spent processing, from its first item to its last. */
+    public double utilization() {
+        long active = (closed.get() ? lastNanos : System.nanoTime()) - firstNanos;
+        return firstNanos == 0 || active <= 0 ? 0 : (double) busyNanos.sum() / active / parallelism;
+    }
+
+    public long busyNanos() { return busyNanos.sum(); }
+
+    /* Records the current queue depth for the averages in summary(); call from one thread. */
+    public void sample() {
+        long depth = queueDepth();
+        depthSamples++;
+        depthSum += depth;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    public String status() {
+        return String.format("%s %d done, queue %d/%d, out %d", name, done.get(), queueDepth(), buffer,
+                downstream.estimateMaximumLag());
+    }
+
+    public String summary() {
+        long active = Math.max(1, lastNanos - firstNanos);
+        return String.format("Stage %s: %d threads, buffer %d, %d in, %d out, %.0f items/s, busy %.0f%%, queue avg %.1f max %d",
+                name, parallelism, buffer, received.get(), emitted.sum(), done.get() * 1e9 / active,
+                100 * utilization(), depthSamples == 0 ? 0.0 : (double) depthSum / depthSamples, maxDepth);
+    }
+
+    private void process(I item) {
+        started.increment();
+        long start = System.nanoTime();
+        try {
+            if (failure == null) {
+                work.process(item, this::emit);
+            }
+        } catch (RuntimeException | Error e) {
+            fail(e);
+        } finally {
+            busyNanos.add(System.nanoTime() - start);
+            done.incrementAndGet();
+        }
+        subscription.request(1);
+        finishIfDone();
+    }
+
+    private void emit(O item) {
+        emitted.increment();
+        downstream.submit(item); // blocks while the next stage is behind
+    }
+
+    // Closes downstream once upstream has completed and the last received item is done
+    private void finishIfDone() {
+        if (upstreamDone && done.get() == received.get() && closed.compareAndSet(false, true)) {
+            lastNanos = System.nanoTime();
+            workers.shutdown();
+            if (failure != null) {
+                downstream.closeExceptionally(failure);
+            } else {
+                downstream.close();
+            }
+            finished.countDown();
+        }
+    }
+
+    private void fail(Throwable throwable) {
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            failure = throwable;
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        downstream.closeExceptionally(throwable);
+        if (closed.compareAndSet(false, true)) {
+            lastNanos = System.nanoTime();
+            workers.shutdownNow();
+            finished.countDown();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*  Runs one engine in a fresh JVM with a given collector and heap, and reads back the row
+    its --metrics option appends instead of scraping what it prints. Each run gets its own
+    temporary metrics file; the engine's output goes to a temporary log that is only shown
+    when the run fails.
+
+    The heap is fixed (-Xms equal to -Xmx) so runs don't differ in how far the heap grew.
+*/
+public class ForkedBenchmark {
+
+    public static final List<String> COLLECTORS = List.of("Serial", "Parallel", "G1", "ZGC");
+
+    private final String java;
+    private final String classPath;
+    private final List<String> jvmArgs;
+    private final String fileName;
+    private final int timeoutSeconds;
+
+    public ForkedBenchmark(String java, String classPath, List<String> jvmArgs, String fileName, int timeoutSeconds) {
+        this.java = java;
+        this.classPath = classPath;
+        this.jvmArgs = jvmArgs;
+        this.fileName = fileName;
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /* What the engine's --metrics row reported for one run. */
+    public static class Result {
+        public final long wallMs;
+        public final double cpuMs;
+        public final long allocatedBytes;
+        public final long gcCount;
+        public final long gcPauseMs;
+        public final String header;
+        public final String row;
+
+        Result(String header, String row) {
+            Map<String, String> columns = columns(header, row);
+            this.wallMs = Long.parseLong(columns.get("wall_ms"));
+            this.cpuMs = Double.parseDouble(columns.get("cpu_ms"));
+            this.allocatedBytes = Long.parseLong(columns.get("allocated_bytes"));
+            this.gcCount = Long.parseLong(columns.get("gc_count"));
+            this.gcPauseMs = Long.parseLong(columns.get("gc_pause_ms"));
+            this.header = header;
+            this.row = row;
+        }
+    }
+
+    /* Threads is left out of the command line when it is 0, for engines without --threads. */
+    public Result run(String engine, List<String> flags, int threads, int pages, String collector, String heap)
+            throws IOException, InterruptedException {
+        if (!COLLECTORS.contains(collector))
+            throw new IllegalArgumentException("Unknown collector: " + collector + ", expected one of " + COLLECTORS);
+        Path metrics = Files.createTempFile("benchmark", ".csv");
+        Path log = Files.createTempFile("benchmark", ".log");
+        try {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.add("-XX:+Use" + (collector.equals("ZGC") ? "Z" : collector) + "GC");
+            command.add("-Xms" + heap);
+            command.add("-Xmx" + heap);
+            command.addAll(jvmArgs);
+            command.add("-cp");
+            command.add(classPath);
+            command.add(engine);
+            command.addAll(flags);
+            if (threads > 0) {
+                command.add("--threads");
+                command.add(String.valueOf(threads));
+            }
+            command.add("--pages");
+            command.add(String.valueOf(pages));
+            command.add("--file");
+            command.add(fileName);
+            command.add("--metrics");
+            command.add(metrics.toString());
+
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+            if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+                throw new IOException("Timed out after " + timeoutSeconds + "s: " + String.join(" ", command));
+            }
+            List<String> lines = Files.readAllLines(metrics, StandardCharsets.UTF_8);
+            if (process.exitValue() != 0 || lines.size() < 2) {
+                throw new IOException("Exit code " + process.exitValue() + ": " + String.join(" ", command)
+                        + System.lineSeparator() + Files.readString(log, StandardCharsets.UTF_8));
+            }
+            return new Result(lines.get(0), lines.get(lines.size() - 1));
+        } finally {
+            Files.deleteIfExists(metrics);
+            Files.deleteIfExists(log);
+        }
+    }
+
+    /* Header names to the fields of row; fields may be quoted with "" as the escaped quote. */
+    public static Map<String, String> columns(String header, String row) {
+        List<String> names = split(header);
+        List<String> values = split(row);
+        Map<String, String> columns = new HashMap<>();
+        for (int i = 0; i < Math.min(names.size(), values.size()); i++) {
+            columns.put(names.get(i).trim(), values.get(i).trim());
+        }
+        return columns;
+    }
+
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted && c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                field.append('"');
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
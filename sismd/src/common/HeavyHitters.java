@@ -0,0 +1,237 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*  Space-Saving heavy-hitter summary with fixed memory: it tracks at most ceil(1/epsilon)
+    words. Every reported count overestimates the true count by at most epsilon * N, where
+    N is the total number of words added, so any word occurring more than epsilon * N times
+    is guaranteed to be tracked. Weighted updates let callers fold a page's local counts
+    in at once. Methods are synchronized so several workers can feed one summary.
+
+    Rather than queue on that lock for every page, workers can count a page into a counter
+    from borrow() and release() it, which folds it into one of 2 per core stripes: summaries
+    of epsilon / 2 taken in turn, so concurrent releases rarely meet on one lock and the
+    memory does not grow with the thread count. flush() adds the stripes up once the workers
+    are done and keeps the largest sums; top() adds them up on the fly until then. A sum is
+    off by at most the smallest count of each stripe (what a word evicted there may have
+    lost or inherited), together at most epsilon * N / 2, and that is the error bound given.
+*/
+public class HeavyHitters {
+
+    private static class Counter {
+        String word;
+        long count;
+        int index;
+
+        Counter(String word, long count) {
+            this.word = word;
+            this.count = count;
+        }
+    }
+
+    private final double epsilon;
+    private final Map<String, Counter> counters;
+    private final Counter[] heap;
+    private int size;
+    private long total;
+    private long mergedError;
+    private boolean merged;
+    private volatile HeavyHitters[] stripes; // created by the first borrow()
+    private final AtomicInteger nextStripe = new AtomicInteger();
+    // Last in, first out, so the counters in use stay the ones still in cache
+    private final ConcurrentLinkedDeque<WordCounter> idleCounts = new ConcurrentLinkedDeque<>();
+
+    public HeavyHitters(double epsilon) {
+        if (!(epsilon > 0 && epsilon < 1)) {
+            throw new IllegalArgumentException("epsilon must be in (0, 1): " + epsilon);
+        }
+        this.epsilon = epsilon;
+        int capacity = (int) Math.ceil(1 / epsilon);
+        this.counters = new HashMap<>(capacity * 4 / 3 + 1);
+        this.heap = new Counter[capacity];
+    }
+
+    public synchronized void add(String word, long count) {
+        total += count;
+        Counter counter = counters.get(word);
+        if (counter != null) {
+            counter.count += count;
+            siftDown(counter.index);
+        } else if (size < heap.length) {
+            counter = new Counter(word, count);
+            counters.put(word, counter);
+            heap[size] = counter;
+            counter.index = size;
+            siftUp(size++);
+        } else {
+            // Evict the smallest counter; the newcomer inherits its count, which bounds its error
+            Counter min = heap[0];
+            counters.remove(min.word);
+            min.word = word;
+            min.count += count;
+            counters.put(word, min);
+            siftDown(0);
+        }
+    }
+
+    public synchronized void addAll(WordCounter counts) {
+        counts.forEach(this::add);
+    }
+
+    /* A counter no other worker uses until it is given back with release(). */
+    public WordCounter borrow() {
+        if (stripes == null) {
+            synchronized (this) {
+                if (stripes == null) {
+                    HeavyHitters[] created = new HeavyHitters[2 * Runtime.getRuntime().availableProcessors()];
+                    for (int i = 0; i < created.length; i++) {
+                        created[i] = new HeavyHitters(epsilon / 2);
+                    }
+                    stripes = created;
+                }
+            }
+        }
+        WordCounter counts = idleCounts.poll();
+        return counts != null ? counts : new WordCounter();
+    }
+
+    public void release(WordCounter counts) {
+        HeavyHitters[] stripes = this.stripes;
+        stripes[Math.floorMod(nextStripe.getAndIncrement(), stripes.length)].addAll(counts);
+        counts.clear();
+        idleCounts.push(counts);
+    }
+
+    // Must run after the release() calls it should see (e.g. after join/awaitTermination)
+    public synchronized void flush() {
+        if (stripes == null) {
+            return;
+        }
+        long words = total;
+        mergedError += merged ? 0 : smallest();
+        Map<String, Long> sums = sums();
+        for (HeavyHitters stripe : stripes) {
+            synchronized (stripe) {
+                mergedError += stripe.smallest();
+                words += stripe.total;
+                stripe.clear();
+            }
+        }
+        List<Map.Entry<String, Long>> largest = new ArrayList<>(sums.entrySet());
+        largest.sort(Map.Entry.comparingByValue(Comparator.reverseOrder()));
+        clear();
+        for (Map.Entry<String, Long> entry : largest.subList(0, Math.min(heap.length, largest.size()))) {
+            Counter counter = new Counter(entry.getKey(), entry.getValue());
+            counters.put(counter.word, counter);
+            heap[size] = counter;
+            counter.index = size;
+            siftUp(size++);
+        }
+        total = words;
+        merged = true;
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /* Upper bound on how much any reported count can exceed the true count. */
+    public synchronized long getErrorBound() {
+        if (stripes == null) {
+            return (long) Math.ceil(epsilon * total);
+        }
+        long bound = mergedError + (merged ? 0 : smallest());
+        for (HeavyHitters stripe : stripes) {
+            synchronized (stripe) {
+                bound += stripe.smallest();
+            }
+        }
+        return bound;
+    }
+
+    public synchronized List<Map.Entry<String, Long>> top(int k) {
+        List<Map.Entry<String, Long>> result = new ArrayList<>(size);
+        if (stripes == null) {
+            for (int i = 0; i < size; i++) {
+                result.add(Map.entry(heap[i].word, heap[i].count));
+            }
+        } else {
+            result.addAll(sums().entrySet());
+        }
+        result.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder())
+                .thenComparing(Map.Entry.comparingByKey()));
+        return result.subList(0, Math.min(k, result.size()));
+    }
+
+    // Counts of this summary and every stripe added up per word
+    private Map<String, Long> sums() {
+        Map<String, Long> sums = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            sums.merge(heap[i].word, heap[i].count, Long::sum);
+        }
+        for (HeavyHitters stripe : stripes) {
+            synchronized (stripe) {
+                for (int i = 0; i < stripe.size; i++) {
+                    sums.merge(stripe.heap[i].word, stripe.heap[i].count, Long::sum);
+                }
+            }
+        }
+        return sums;
+    }
+
+    // What a word this summary evicted may have had; 0 while it has room
+    private long smallest() {
+        return size == heap.length ? heap[0].count : 0;
+    }
+
+    private void clear() {
+        counters.clear();
+        Arrays.fill(heap, 0, size, null);
+        size = 0;
+        total = 0;
+    }
+
+    private void siftUp(int i) {
+        Counter counter = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            place(heap[parent], i);
+            i = parent;
+        }
+        place(counter, i);
+    }
+
+    private void siftDown(int i) {
+        Counter counter = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (counter.count <= heap[child].count) {
+                break;
+            }
+            place(heap[child], i);
+            i = child;
+        }
+        place(counter, i);
+    }
+
+    private void place(Counter counter, int i) {
+        heap[i] = counter;
+        counter.index = i;
+    }
+}
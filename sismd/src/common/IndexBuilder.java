@@ -0,0 +1,428 @@
+package common;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*  Builds an InvertedIndex: which pages every word occurs on.
+
+    The parsing thread numbers the pages with page(title), in the order it reads them.
+    map() then tokenizes a page on any thread through a worker borrowed from a pool, as in
+    NGramMapReduce, and each worker keeps a partial index: per word the ids of its pages
+    as delta varints, each page at most once. Workers usually see their pages in
+    increasing order; a page that arrives after a later one is stored as a negative
+    delta (int arithmetic wraps, so it still decodes), and those lists are decoded,
+    sorted and re-encoded once before the merge.
+
+    write() merges the partial indexes word by word in sorted order, encoding the records
+    on as many threads as the build used. Pages are disjoint between workers, so a word
+    held by one worker is copied as it is and only words spread over several workers are
+    decoded and merged.
+*/
+public class IndexBuilder {
+
+    private static final int WINDOW = 4096;
+
+    private final boolean compatibleWords;
+    private final List<String> titles = new ArrayList<>();
+    private final Queue<Worker> workers = new ConcurrentLinkedQueue<>();
+    private final Queue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+
+    public IndexBuilder(boolean compatibleWords) {
+        this.compatibleWords = compatibleWords;
+    }
+
+    /* Id of the next page; only the parsing thread may call it. */
+    public int page(String title) {
+        titles.add(title);
+        return titles.size() - 1;
+    }
+
+    public void map(int id, Page page) {
+        Worker worker = idleWorkers.poll();
+        if (worker == null) {
+            worker = new Worker();
+            workers.add(worker);
+        }
+        worker.page = id;
+        worker.tokenizer.forEachWord(page, worker);
+        idleWorkers.offer(worker);
+    }
+
+    /*  Merges the partial indexes into fileName, replacing it through a temporary file.
+        Must run after every map() call has completed. Returns {words, postings, bytes}.
+
+        Words are taken from the partial indexes in sorted order WINDOW at a time; each
+        window is cut into one slice per thread, the slices are encoded in parallel and
+        then written out in order, so memory stays bounded by a window of records.
+    */
+    public long[] write(String fileName, int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, Metrics.threadFactory());
+        try {
+            return write(fileName, threads, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private long[] write(String fileName, int threads, ExecutorService pool) throws IOException {
+        Path target = Path.of(fileName);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        List<CompletableFuture<Partial>> sorting = new ArrayList<>();
+        for (Worker worker : workers) {
+            sorting.add(CompletableFuture.supplyAsync(() -> new Partial(worker), pool));
+        }
+        PriorityQueue<Partial> heap = new PriorityQueue<>((a, b) -> Arrays.compareUnsigned(a.key(), b.key()));
+        for (CompletableFuture<Partial> partial : sorting) {
+            if (partial.join().advance()) {
+                heap.add(partial.join());
+            }
+        }
+        long[] titleTable = new long[titles.size() + 1];
+        long[] wordTable = new long[1024];
+        int words = 0;
+        long postings = 0;
+        long position = InvertedIndex.HEADER;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.write(new byte[InvertedIndex.HEADER]);
+            for (int i = 0; i < titles.size(); i++) {
+                titleTable[i] = position;
+                byte[] title = titles.get(i).getBytes(StandardCharsets.UTF_8);
+                out.write(title);
+                position += title.length;
+            }
+            titleTable[titles.size()] = position;
+
+            List<Word> window = new ArrayList<>(WINDOW);
+            List<CompletableFuture<Block>> blocks = new ArrayList<>(threads);
+            while (!heap.isEmpty()) {
+                window.clear();
+                while (!heap.isEmpty() && window.size() < WINDOW) {
+                    window.add(nextWord(heap));
+                }
+                blocks.clear();
+                int slice = (window.size() + threads - 1) / threads;
+                for (int from = 0; from < window.size(); from += slice) {
+                    List<Word> part = window.subList(from, Math.min(window.size(), from + slice));
+                    blocks.add(CompletableFuture.supplyAsync(() -> new Block(part), pool));
+                }
+                for (CompletableFuture<Block> future : blocks) {
+                    Block block = future.join();
+                    if (words + block.starts.length >= wordTable.length) {
+                        wordTable = Arrays.copyOf(wordTable, Math.max(wordTable.length * 2, words + block.starts.length + 1));
+                    }
+                    for (int start : block.starts) {
+                        wordTable[words++] = position + start;
+                    }
+                    out.write(block.bytes[0], 0, block.length);
+                    position += block.length;
+                    postings += block.postings;
+                }
+            }
+            wordTable[words] = position;
+            wordTable = Arrays.copyOf(wordTable, words + 1);
+            for (long at : titleTable) {
+                out.writeLong(at);
+            }
+            for (long at : wordTable) {
+                out.writeLong(at);
+            }
+        }
+        long titlesAt = position;
+        long wordsAt = titlesAt + 8L * titleTable.length;
+        long size = wordsAt + 8L * wordTable.length;
+        if (size > Integer.MAX_VALUE) {
+            Files.delete(temp);
+            throw new IOException("Inverted index exceeds 2GB");
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(InvertedIndex.HEADER);
+            header.putInt(InvertedIndex.MAGIC).putInt(InvertedIndex.VERSION).putInt(words)
+                    .putInt(titles.size()).putLong(titlesAt).putLong(wordsAt).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new long[] { words, postings, size };
+    }
+
+    // The smallest word left and every (worker, slot) holding it
+    private static Word nextWord(PriorityQueue<Partial> heap) {
+        List<Partial> same = new ArrayList<>(2);
+        same.add(heap.poll());
+        byte[] key = same.get(0).key();
+        while (!heap.isEmpty() && Arrays.equals(heap.peek().key(), key)) {
+            same.add(heap.poll());
+        }
+        Word word = new Word(key, same.size());
+        for (int i = 0; i < same.size(); i++) {
+            Partial partial = same.get(i);
+            word.workers[i] = partial.worker;
+            word.slots[i] = partial.slot();
+            if (partial.advance()) {
+                heap.add(partial);
+            }
+        }
+        return word;
+    }
+
+    /*  One word's lists from several workers, merged as they are decoded and appended at
+        buffer[0][length]; returns the new length. No page is in two lists, since every
+        page went to one worker, and there are at most as many lists as workers, so the
+        smallest head is found by a plain scan.
+    */
+    private static int merge(Word word, byte[][] buffer, int length) {
+        Postings[] lists = new Postings[word.slots.length];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = new Postings(word.workers[i].lists[word.slots[i]], word.workers[i].counts[word.slots[i]]);
+            lists[i].next();
+        }
+        int previous = 0;
+        while (true) {
+            Postings min = null;
+            for (Postings postings : lists) {
+                if (postings.page >= 0 && (min == null || postings.page < min.page)) {
+                    min = postings;
+                }
+            }
+            if (min == null) {
+                return length;
+            }
+            length = append(buffer, length, min.page - previous);
+            previous = min.page;
+            min.next();
+        }
+    }
+
+    // Delta varints of pages[0, count) into encoded[0], growing it when needed; returns the length
+    private static int encode(byte[][] encoded, int[] pages, int count) {
+        int length = 0;
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            length = append(encoded, length, pages[i] - previous);
+            previous = pages[i];
+        }
+        return length;
+    }
+
+    private static int append(byte[][] list, int length, int value) {
+        ensure(list, length + 5);
+        return length + putVarint(list[0], length, value);
+    }
+
+    private static int append(byte[][] list, int length, byte[] bytes, int count) {
+        ensure(list, length + count);
+        System.arraycopy(bytes, 0, list[0], length, count);
+        return length + count;
+    }
+
+    private static void ensure(byte[][] list, int capacity) {
+        if (capacity > list[0].length) {
+            list[0] = Arrays.copyOf(list[0], Math.max(list[0].length * 2, capacity));
+        }
+    }
+
+    private static int putVarint(byte[] bytes, int at, int value) {
+        int start = at;
+        while ((value & ~0x7F) != 0) {
+            bytes[at++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        bytes[at++] = (byte) value;
+        return at - start;
+    }
+
+    // One partial index: word slots from a local cache (slot + 1, as in WordDictionary.Local)
+    private class Worker implements Tokenizer.WordSink {
+        final Tokenizer tokenizer = new Tokenizer(compatibleWords);
+        final WordCounter slots = new WordCounter();
+        final byte[][] list = new byte[1][];
+        String[] words = new String[1024];
+        byte[][] lists = new byte[1024][];
+        int[] lengths = new int[1024];
+        int[] counts = new int[1024];
+        int[] last = new int[1024];
+        boolean[] unsorted = new boolean[1024];
+        int size;
+        int page;
+
+        @Override
+        public void accept(char[] chars, int offset, int length) {
+            int slot = slots.get(chars, offset, length) - 1;
+            if (slot < 0) {
+                slot = newSlot(new String(chars, offset, length));
+            } else if (last[slot] == page) {
+                return; // a page's words all go through one map() call, so its repeats are adjacent
+            }
+            if (page < last[slot]) {
+                unsorted[slot] = true;
+            }
+            list[0] = lists[slot];
+            lengths[slot] = append(list, lengths[slot], counts[slot] == 0 ? page : page - last[slot]);
+            lists[slot] = list[0];
+            counts[slot]++;
+            last[slot] = page;
+        }
+
+        private int newSlot(String word) {
+            if (size == words.length) {
+                int capacity = size * 2;
+                words = Arrays.copyOf(words, capacity);
+                lists = Arrays.copyOf(lists, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+                last = Arrays.copyOf(last, capacity);
+                unsorted = Arrays.copyOf(unsorted, capacity);
+            }
+            slots.add(word, size + 1);
+            words[size] = word;
+            lists[size] = new byte[8];
+            last[size] = -1;
+            return size++;
+        }
+
+        void sortLists() {
+            for (int slot = 0; slot < size; slot++) {
+                if (unsorted[slot]) {
+                    int[] pages = decode(slot);
+                    Arrays.sort(pages);
+                    list[0] = lists[slot];
+                    lengths[slot] = encode(list, pages, pages.length);
+                    lists[slot] = list[0];
+                    unsorted[slot] = false;
+                }
+            }
+        }
+
+        int[] decode(int slot) {
+            int[] pages = new int[counts[slot]];
+            Postings postings = new Postings(lists[slot], counts[slot]);
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = postings.next();
+            }
+            return pages;
+        }
+    }
+
+    // Reads a delta varint list front to back; page is -1 once it is used up
+    private static class Postings {
+        private final byte[] bytes;
+        private int left;
+        private int at;
+        int page;
+
+        Postings(byte[] bytes, int count) {
+            this.bytes = bytes;
+            this.left = count;
+        }
+
+        int next() {
+            if (left == 0) {
+                return page = -1;
+            }
+            left--;
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[at++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            return page += value;
+        }
+    }
+
+    private static class Word {
+        final byte[] key;
+        final Worker[] workers;
+        final int[] slots;
+
+        Word(byte[] key, int lists) {
+            this.key = key;
+            this.workers = new Worker[lists];
+            this.slots = new int[lists];
+        }
+    }
+
+    // The records of consecutive words, encoded on one pool thread; starts are offsets into bytes[0]
+    private static class Block {
+        final byte[][] bytes = new byte[1][];
+        final int[] starts;
+        int length;
+        long postings;
+
+        Block(List<Word> words) {
+            starts = new int[words.size()];
+            bytes[0] = new byte[1 << 16];
+            for (int i = 0; i < starts.length; i++) {
+                Word word = words.get(i);
+                starts[i] = length;
+                length = append(bytes, length, word.key.length);
+                length = append(bytes, length, word.key, word.key.length);
+                int count = 0;
+                for (int j = 0; j < word.slots.length; j++) {
+                    count += word.workers[j].counts[word.slots[j]];
+                }
+                length = append(bytes, length, count);
+                if (word.slots.length == 1) {
+                    Worker worker = word.workers[0];
+                    length = append(bytes, length, worker.lists[word.slots[0]], worker.lengths[word.slots[0]]);
+                } else {
+                    length = merge(word, bytes, length);
+                }
+                postings += count;
+            }
+        }
+    }
+
+    // A worker's words in sorted order, walked once by the merge
+    private static class Partial {
+        final Worker worker;
+        private final Integer[] order;
+        private final byte[][] keys;
+        private int next = -1;
+
+        Partial(Worker worker) {
+            this.worker = worker;
+            worker.sortLists();
+            keys = new byte[worker.size][];
+            order = new Integer[worker.size];
+            for (int i = 0; i < worker.size; i++) {
+                keys[i] = worker.words[i].getBytes(StandardCharsets.UTF_8);
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
+        }
+
+        boolean advance() {
+            return ++next < order.length;
+        }
+
+        int slot() {
+            return order[next];
+        }
+
+        byte[] key() {
+            return keys[order[next]];
+        }
+    }
+}
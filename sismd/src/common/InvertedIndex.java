@@ -0,0 +1,214 @@
+package common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/*  Word -> pages index written by IndexBuilder, answering queries straight off the
+    memory-mapped file.
+
+    Layout (big-endian): a 32-byte header (magic, version, word count n, page count p,
+    position of the title table, position of the word table), the page titles as UTF-8
+    back to back, one record per word sorted by unsigned UTF-8 bytes, then the title
+    table as long[p + 1] and the word table as long[n + 1] of file positions. A record is
+    varint key length, key, varint number of pages and the page ids in increasing order,
+    each as a varint of its difference to the previous id (the first from 0). Lookups
+    binary-search the word table; postings are decoded as they are read.
+
+    The whole file is one mapping, so an index is limited to 2GB.
+*/
+public class InvertedIndex {
+
+    static final int MAGIC = 0x57494458; // "WIDX"
+    static final int VERSION = 1;
+    static final int HEADER = 32;
+
+    private final int size;
+    private final int pages;
+    private final long titlesAt;
+    private final long wordsAt;
+    private final ByteBuffer file;
+
+    private InvertedIndex(String fileName, ByteBuffer file) throws IOException {
+        if (file.capacity() < HEADER || file.getInt(0) != MAGIC || file.getInt(4) != VERSION) {
+            throw new IOException("Not an inverted index: " + fileName);
+        }
+        this.file = file;
+        this.size = file.getInt(8);
+        this.pages = file.getInt(12);
+        this.titlesAt = file.getLong(16);
+        this.wordsAt = file.getLong(24);
+    }
+
+    public static InvertedIndex open(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Inverted index larger than 2GB: " + fileName);
+            }
+            return new InvertedIndex(fileName, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /* Distinct words. */
+    public int size() { return size; }
+
+    public int pages() { return pages; }
+
+    public String title(int page) {
+        int start = (int) file.getLong((int) titlesAt + page * 8);
+        byte[] bytes = new byte[(int) file.getLong((int) titlesAt + page * 8 + 8) - start];
+        file.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /* Number of pages containing word. */
+    public int frequency(String word) {
+        int record = find(word.getBytes(StandardCharsets.UTF_8));
+        return record < 0 ? 0 : new Postings(record).size;
+    }
+
+    /* Ids of the pages containing every one of words, in increasing order. */
+    public int[] pagesWithAll(List<String> words) {
+        if (words.isEmpty()) {
+            return new int[0];
+        }
+        List<Postings> lists = new ArrayList<>(words.size());
+        for (String word : words) {
+            int record = find(word.getBytes(StandardCharsets.UTF_8));
+            if (record < 0) {
+                return new int[0];
+            }
+            lists.add(new Postings(record));
+        }
+        // Start from the rarest word so every later pass only walks a short candidate list
+        lists.sort(Comparator.comparingInt(postings -> postings.size));
+        Postings rarest = lists.get(0);
+        int[] result = new int[rarest.size];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = rarest.next();
+        }
+        int length = result.length;
+        for (int l = 1; l < lists.size() && length > 0; l++) {
+            Postings postings = lists.get(l);
+            int kept = 0;
+            int page = postings.next();
+            for (int i = 0; i < length && page >= 0; i++) {
+                while (page >= 0 && page < result[i]) {
+                    page = postings.next();
+                }
+                if (page == result[i]) {
+                    result[kept++] = page;
+                }
+            }
+            length = kept;
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    /* The k words found on the most pages, ties broken alphabetically (by UTF-8 bytes). */
+    public List<Map.Entry<String, Integer>> top(int k) {
+        Comparator<Map.Entry<String, Integer>> ascending = Map.Entry.<String, Integer>comparingByValue()
+                .thenComparing(Map.Entry.<String, Integer>comparingByKey().reversed());
+        PriorityQueue<Map.Entry<String, Integer>> heap = new PriorityQueue<>(Math.max(1, k), ascending);
+        for (int i = 0; i < size && k > 0; i++) {
+            Postings postings = new Postings(i);
+            if (heap.size() < k || postings.size >= heap.peek().getValue()) {
+                heap.add(Map.entry(postings.word(), postings.size));
+                if (heap.size() > k) {
+                    heap.poll();
+                }
+            }
+        }
+        List<Map.Entry<String, Integer>> result = new ArrayList<>(heap);
+        result.sort(ascending.reversed());
+        return result;
+    }
+
+    private int find(byte[] key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareKey(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareKey(int record, byte[] key) {
+        int[] at = { recordStart(record) };
+        int length = readVarint(file, at);
+        for (int j = 0; j < Math.min(length, key.length); j++) {
+            int cmp = Byte.compareUnsigned(file.get(at[0] + j), key[j]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private int recordStart(int record) {
+        return (int) file.getLong((int) wordsAt + record * 8);
+    }
+
+    // Decodes one record's page ids front to back
+    private class Postings {
+        final int keyAt;
+        final int keyLength;
+        final int size;
+        private final int[] at = new int[1];
+        private int left;
+        private int page;
+
+        Postings(int record) {
+            at[0] = recordStart(record);
+            keyLength = readVarint(file, at);
+            keyAt = at[0];
+            at[0] += keyLength;
+            size = readVarint(file, at);
+            left = size;
+        }
+
+        String word() {
+            byte[] bytes = new byte[keyLength];
+            file.get(keyAt, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // -1 once every id was read
+        int next() {
+            if (left == 0) {
+                return -1;
+            }
+            left--;
+            page += readVarint(file, at);
+            return page;
+        }
+    }
+
+    private static int readVarint(ByteBuffer buffer, int[] at) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(at[0]++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
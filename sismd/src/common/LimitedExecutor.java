@@ -0,0 +1,44 @@
+package common;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/*  Lets at most `limit` tasks be pending or running in the delegate executor at once;
+    execute() blocks the submitting thread until a slot frees up. Keeps a
+    virtual-thread-per-task executor from holding one thread (and one page) per page
+    of the dump while the carrier threads do the actual counting.
+*/
+public class LimitedExecutor implements Executor {
+
+    private final Executor delegate;
+    private final int limit;
+    private final Semaphore permits;
+
+    public LimitedExecutor(Executor delegate, int limit) {
+        this.delegate = delegate;
+        this.limit = Math.max(1, limit);
+        this.permits = new Semaphore(this.limit);
+    }
+
+    /* Tasks pending or running right now. */
+    public int inFlight() {
+        return limit - permits.availablePermits();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        permits.acquireUninterruptibly();
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+}
@@ -1,30 +1,180 @@
 package common;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 
+/*  Shared mode merges every word into one ConcurrentHashMap.
+    Local mode counts each text into a WordCounter that no other thread touches meanwhile
+    and folds all of them into the shared map once, when the counts are read after the
+    workers are done. Counters and tokenizers are borrowed from idle pools rather than held
+    in ThreadLocals, so one-shot virtual threads reuse them instead of each creating one.
+    Spilling mode is local mode under a heap budget: counters that grow past it are written
+    to sorted runs, getCounts() only spills what is left (the map stays empty) and
+    printTopWords() merges the runs.
+    N-gram mode hands every page to an NGramMapReduce, which has the same local structure.
+*/
 public class MapReduce {
 
     private final ConcurrentMap<String, Integer> wordCounts = new ConcurrentHashMap<>();
+    private final boolean compatibleWords;
+    private final Queue<Tokenizer> idleTokenizers = new ConcurrentLinkedQueue<>();
+    private final boolean localCounts;
+    private final Queue<WordCounter> workerCounts = new ConcurrentLinkedQueue<>();
+    private final Queue<WordCounter> idleCounts = new ConcurrentLinkedQueue<>();
+    private final HeavyHitters heavyHitters;
+    private final SpillingCounts spill;
+    private final NGramMapReduce ngrams;
+
+    public MapReduce() {
+        this(false);
+    }
+
+    public MapReduce(boolean compatibleWords) {
+        this(compatibleWords, false);
+    }
+
+    public MapReduce(boolean compatibleWords, boolean localCounts) {
+        this(compatibleWords, localCounts, null);
+    }
+
+    /*  With heavyHitters set, each text is counted into a counter borrowed from it and folded
+        into that fixed-size summary instead of the full map; getCounts() then only holds the
+        tracked words.
+    */
+    public MapReduce(boolean compatibleWords, boolean localCounts, HeavyHitters heavyHitters) {
+        this(compatibleWords, localCounts, heavyHitters, null);
+    }
+
+    public MapReduce(boolean compatibleWords, SpillingCounts spill) {
+        this(compatibleWords, true, null, spill);
+    }
+
+    public MapReduce(NGramMapReduce ngrams) {
+        this(false, true, null, null, ngrams);
+    }
+
+    private MapReduce(boolean compatibleWords, boolean localCounts, HeavyHitters heavyHitters, SpillingCounts spill) {
+        this(compatibleWords, localCounts, heavyHitters, spill, null);
+    }
+
+    private MapReduce(boolean compatibleWords, boolean localCounts, HeavyHitters heavyHitters, SpillingCounts spill,
+                      NGramMapReduce ngrams) {
+        this.compatibleWords = compatibleWords;
+        this.localCounts = localCounts;
+        this.heavyHitters = heavyHitters;
+        this.spill = spill;
+        this.ngrams = ngrams;
+    }
 
     public void map(String text) {
-        Iterable<String> words = new Words(text);
-        for (String word : words) {
-            if (word.length() > 1 || word.equals("a") || word.equals("I")) {
-                wordCounts.merge(word, 1, Integer::sum);
+        map(new Page("", text));
+    }
+
+    public void map(Page page) {
+        if (ngrams != null) {
+            ngrams.map(page);
+            return;
+        }
+        Tokenizer tokenizer = idleTokenizers.poll();
+        if (tokenizer == null) {
+            tokenizer = new Tokenizer(compatibleWords);
+        }
+        if (heavyHitters != null) {
+            WordCounter counter = heavyHitters.borrow();
+            tokenizer.forEachWord(page, counter::add);
+            heavyHitters.release(counter);
+        } else if (localCounts) {
+            WordCounter counter = idleCounts.poll();
+            if (counter == null) {
+                counter = new WordCounter();
+                workerCounts.add(counter);
+            }
+            tokenizer.forEachWord(page, counter::add);
+            if (spill != null) {
+                spill.spillIfFull(counter);
             }
+            idleCounts.offer(counter);
+        } else {
+            tokenizer.forEachWord(page,
+                    (chars, offset, length) -> wordCounts.merge(new String(chars, offset, length), 1, Integer::sum));
         }
+        idleTokenizers.offer(tokenizer);
     }
 
     public ConcurrentMap<String, Integer> getCounts() {
+        reduce();
         return wordCounts;
     }
 
+    /*  Top words so far, safe to call while map() runs (for Progress); null in local and
+        spilling modes, whose counts only come together in getCounts().
+    */
+    public List<? extends Map.Entry<String, ? extends Number>> topSoFar(int k) {
+        if (heavyHitters != null) {
+            return heavyHitters.top(k);
+        }
+        return localCounts ? null : TopK.of(wordCounts, k);
+    }
+
+    /* Distinct words so far in shared mode, -1 otherwise. */
+    public long distinctSoFar() {
+        return heavyHitters != null || localCounts ? -1 : wordCounts.size();
+    }
+
     public void printTopWords(int topN) {
-        wordCounts.entrySet().stream()
-                .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
-                .limit(topN)
-                .forEach(entry -> System.out
-                        .println("Word: '" + entry.getKey() + "' occurred " + entry.getValue() + " times!"));
+        if (ngrams != null) {
+            ngrams.printTopPhrases(topN);
+            return;
+        }
+        if (heavyHitters != null) {
+            heavyHitters.flush();
+            System.out.println("Approximate counts, error bound: " + heavyHitters.getErrorBound());
+            heavyHitters.top(topN).forEach(entry -> System.out
+                    .println("Word: '" + entry.getKey() + "' occurred " + entry.getValue() + " times!"));
+            return;
+        }
+        reduce();
+        if (spill != null) {
+            spill.top(topN).forEach(entry -> System.out
+                    .println("Word: '" + entry.getKey() + "' occurred " + entry.getValue() + " times!"));
+            return;
+        }
+        TopK.of(wordCounts, topN).forEach(entry -> System.out
+                .println("Word: '" + entry.getKey() + "' occurred " + entry.getValue() + " times!"));
+    }
+
+    // Must run after the map() calls it should see have completed (e.g. after join/awaitTermination)
+    private synchronized void reduce() {
+        if (ngrams != null) {
+            ngrams.getCounts();
+            return;
+        }
+        if (heavyHitters != null) {
+            heavyHitters.flush();
+            heavyHitters.top(Integer.MAX_VALUE).forEach(entry -> wordCounts.put(entry.getKey(), Math.toIntExact(entry.getValue())));
+            return;
+        }
+        if (workerCounts.isEmpty()) {
+            return;
+        }
+        if (spill != null) {
+            workerCounts.forEach(spill::spill);
+            return;
+        }
+        WordCounter total = new WordCounter();
+        for (WordCounter counter : workerCounts) {
+            if (counter.size() > total.size()) {
+                counter.addAll(total);
+                total = counter;
+            } else {
+                total.addAll(counter);
+            }
+        }
+        total.forEach((word, count) -> wordCounts.merge(word, count, Integer::sum));
+        workerCounts.forEach(WordCounter::clear);
     }
 }
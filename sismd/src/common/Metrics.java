@@ -0,0 +1,312 @@
+package common;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/*  Resource usage of one engine run, shared by every engine.
+
+    cpu is the CPU time of the whole process (all threads, GC and JIT included), so the
+    parallel engines are no longer measured on the main thread alone. Thread CPU and
+    allocated bytes come per thread from com.sun.management.ThreadMXBean: threads still
+    alive at stop() are read directly, and threads created through threadFactory(),
+    forkJoinThreadFactory() or tracked() report themselves when they exit, since a dead
+    thread can no longer be asked. GC count and pause time are summed over the
+    collectors that stop the application (concurrent cycles are left out).
+
+    Stage times are summed over the threads that ran the stage, so overlapping stages
+    can add up to more than the wall time. Tokenizing and counting are one pass (the
+    tokenizer feeds the counter word by word), so COUNT covers both.
+*/
+public class Metrics {
+
+    public enum Stage { PARSE, COUNT, MERGE, REPORT }
+
+    private static final String CSV_HEADER = "engine,threads,pages,args,wall_ms,cpu_ms,thread_cpu_ms,allocated_bytes,"
+            + "gc_count,gc_pause_ms,parse_ms,count_ms,merge_ms,report_ms";
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.OperatingSystemMXBean OS =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private static final Queue<ThreadUsage> exited = new ConcurrentLinkedQueue<>();
+
+    private final String engine;
+    private final int threads;
+    private final int pages;
+    private final String args;
+    private final Map<Stage, LongAdder> stages = new EnumMap<>(Stage.class);
+    private final Map<Long, ThreadUsage> baseline = new HashMap<>();
+    private final long startNanos;
+    private final long startCpu;
+    private final long startGcCount;
+    private final long startGcTime;
+    private long wallNanos;
+    private long cpu;
+    private long gcCount;
+    private long gcTime;
+    private final List<ThreadUsage> usage = new ArrayList<>();
+
+    /* Runs a GC first, as the engines did, so the run starts from a settled heap. */
+    public Metrics(String engine, int threads, int pages, String[] args) {
+        this.engine = engine;
+        this.threads = threads;
+        this.pages = pages;
+        this.args = String.join(" ", args);
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LongAdder());
+        }
+        Runtime.getRuntime().gc();
+        exited.clear();
+        for (ThreadUsage thread : liveThreads()) {
+            baseline.put(thread.id, thread);
+        }
+        startGcCount = gcCount();
+        startGcTime = gcTime();
+        startCpu = OS.getProcessCpuTime();
+        startNanos = System.nanoTime();
+    }
+
+    public void add(Stage stage, long nanos) {
+        stages.get(stage).add(nanos);
+    }
+
+    public long nanos(Stage stage) {
+        return stages.get(stage).sum();
+    }
+
+    public void time(Stage stage, Runnable work) {
+        long start = System.nanoTime();
+        try {
+            work.run();
+        } finally {
+            add(stage, System.nanoTime() - start);
+        }
+    }
+
+    /* Charges the time spent getting each element (hasNext and next) to stage. */
+    public <T> Iterable<T> timed(Stage stage, Iterable<T> source) {
+        return () -> {
+            Iterator<T> iterator = source.iterator();
+            return new Iterator<T>() {
+                public boolean hasNext() {
+                    long start = System.nanoTime();
+                    try {
+                        return iterator.hasNext();
+                    } finally {
+                        add(stage, System.nanoTime() - start);
+                    }
+                }
+
+                public T next() {
+                    long start = System.nanoTime();
+                    try {
+                        return iterator.next();
+                    } finally {
+                        add(stage, System.nanoTime() - start);
+                    }
+                }
+            };
+        };
+    }
+
+    /* Ends the measured part of the run; the REPORT stage may still be timed afterwards. */
+    public void stop() {
+        wallNanos = System.nanoTime() - startNanos;
+        cpu = OS.getProcessCpuTime() - startCpu;
+        gcCount = gcCount() - startGcCount;
+        gcTime = gcTime() - startGcTime;
+        // A thread that reported its exit may still show up as live for a moment; its report wins
+        Map<Long, ThreadUsage> totals = new LinkedHashMap<>();
+        for (ThreadUsage thread : liveThreads()) {
+            totals.put(thread.id, thread);
+        }
+        for (ThreadUsage thread : exited) {
+            totals.put(thread.id, thread);
+        }
+        for (ThreadUsage thread : totals.values()) {
+            ThreadUsage before = baseline.get(thread.id);
+            usage.add(before == null ? thread : new ThreadUsage(thread.id, thread.name,
+                    thread.cpu - before.cpu, thread.allocated - before.allocated));
+        }
+    }
+
+    /* The lines the engines always printed, now measured over all threads, plus GC and stages. */
+    public void print() {
+        System.out.println("Elapsed time: " + wallNanos / 1_000_000 + "ms");
+        System.out.println("Usage Memory: " + allocated() + " bytes");
+        System.out.println(String.format(Locale.US, "Usage Cpu Time %.8f seconds", cpu / 1_000_000_000.0));
+        System.out.println("GC: " + gcCount + " collections, " + gcTime + "ms paused");
+        System.out.println(String.format(Locale.US, "Stages: parse %.1fms, count %.1fms, merge %.1fms",
+                millis(Stage.PARSE), millis(Stage.COUNT), millis(Stage.MERGE)));
+    }
+
+    /* Appends one run to fileName: a JSON object per line for .json, a CSV row otherwise. */
+    public void write(String fileName) {
+        Path path = Path.of(fileName);
+        boolean json = fileName.endsWith(".json");
+        boolean header = !json && (!Files.exists(path) || path.toFile().length() == 0);
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName, true))) {
+            if (header) {
+                out.println(CSV_HEADER);
+            }
+            out.println(json ? toJson() : toCsv());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static ThreadFactory threadFactory() {
+        ThreadFactory defaults = Executors.defaultThreadFactory();
+        return runnable -> {
+            Thread thread = defaults.newThread(tracked(runnable));
+            thread.setDaemon(true); // every pool is awaited; a failed main must not leave the JVM waiting on it
+            return thread;
+        };
+    }
+
+    public static ForkJoinPool.ForkJoinWorkerThreadFactory forkJoinThreadFactory() {
+        return pool -> new ForkJoinWorkerThread(pool) {
+            @Override
+            protected void onTermination(Throwable exception) {
+                recordCurrentThread();
+                super.onTermination(exception);
+            }
+        };
+    }
+
+    /* Wraps a thread body so the thread records its CPU time and allocations when it ends. */
+    public static Runnable tracked(Runnable runnable) {
+        return () -> {
+            try {
+                runnable.run();
+            } finally {
+                recordCurrentThread();
+            }
+        };
+    }
+
+    private static void recordCurrentThread() {
+        Thread thread = Thread.currentThread();
+        if (!thread.isVirtual()) {
+            exited.add(new ThreadUsage(thread.threadId(), thread.getName(),
+                    THREADS.getCurrentThreadCpuTime(), THREADS.getCurrentThreadAllocatedBytes()));
+        }
+    }
+
+    private static List<ThreadUsage> liveThreads() {
+        long[] ids = THREADS.getAllThreadIds();
+        long[] cpu = THREADS.getThreadCpuTime(ids);
+        long[] allocated = THREADS.getThreadAllocatedBytes(ids);
+        List<ThreadUsage> live = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            ThreadInfo info = THREADS.getThreadInfo(ids[i]);
+            if (info != null && cpu[i] >= 0) {
+                live.add(new ThreadUsage(ids[i], info.getThreadName(), cpu[i], Math.max(0, allocated[i])));
+            }
+        }
+        return live;
+    }
+
+    private long threadCpu() {
+        return usage.stream().mapToLong(thread -> thread.cpu).sum();
+    }
+
+    private long allocated() {
+        return usage.stream().mapToLong(thread -> thread.allocated).sum();
+    }
+
+    private double millis(Stage stage) {
+        return stages.get(stage).sum() / 1_000_000.0;
+    }
+
+    private static boolean pauses(GarbageCollectorMXBean gc) {
+        return !gc.getName().contains("Concurrent") && !gc.getName().contains("Cycles");
+    }
+
+    static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .filter(Metrics::pauses).mapToLong(gc -> Math.max(0, gc.getCollectionCount())).sum();
+    }
+
+    static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .filter(Metrics::pauses).mapToLong(gc -> Math.max(0, gc.getCollectionTime())).sum();
+    }
+
+    private String toCsv() {
+        return String.format(Locale.US, "%s,%d,%d,\"%s\",%d,%.3f,%.3f,%d,%d,%d,%.3f,%.3f,%.3f,%.3f",
+                engine, threads, pages, args.replace("\"", "\"\""), wallNanos / 1_000_000,
+                cpu / 1_000_000.0, threadCpu() / 1_000_000.0, allocated(), gcCount, gcTime,
+                millis(Stage.PARSE), millis(Stage.COUNT), millis(Stage.MERGE), millis(Stage.REPORT));
+    }
+
+    private String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.US, "{\"engine\":\"%s\",\"threads\":%d,\"pages\":%d,\"args\":\"%s\","
+                        + "\"wallMs\":%d,\"cpuMs\":%.3f,\"threadCpuMs\":%.3f,\"allocatedBytes\":%d,"
+                        + "\"gcCount\":%d,\"gcPauseMs\":%d,\"stagesMs\":{",
+                escape(engine), threads, pages, escape(args), wallNanos / 1_000_000,
+                cpu / 1_000_000.0, threadCpu() / 1_000_000.0, allocated(), gcCount, gcTime));
+        for (Stage stage : Stage.values()) {
+            json.append(String.format(Locale.US, "%s\"%s\":%.3f", stage.ordinal() > 0 ? "," : "",
+                    stage.name().toLowerCase(Locale.ROOT), millis(stage)));
+        }
+        json.append("},\"perThread\":[");
+        for (int i = 0; i < usage.size(); i++) {
+            ThreadUsage thread = usage.get(i);
+            json.append(String.format(Locale.US, "%s{\"name\":\"%s\",\"cpuMs\":%.3f,\"allocatedBytes\":%d}",
+                    i > 0 ? "," : "", escape(thread.name), thread.cpu / 1_000_000.0, thread.allocated));
+        }
+        return json.append("]}").toString();
+    }
+
+    static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static final class ThreadUsage {
+        final long id;
+        final String name;
+        final long cpu;
+        final long allocated;
+
+        ThreadUsage(long id, String name, long cpu, long allocated) {
+            this.id = id;
+            this.name = name;
+            this.cpu = cpu;
+            this.allocated = allocated;
+        }
+    }
+}
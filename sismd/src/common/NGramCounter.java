@@ -0,0 +1,108 @@
+package common;
+
+/*  Counter of word-id n-grams with open addressing over primitive arrays, no boxing and no
+    key objects. A bigram is one long (first id << 32 | second id); a trigram adds the
+    third id as an int, so every key is a fixed 12 bytes and ids keep their full 32 bits.
+    Bigrams store 0 as the third id. A slot is empty while its count is 0.
+
+    Not thread-safe: one counter per thread, combined with addAll().
+*/
+public class NGramCounter {
+
+    public interface NGramConsumer {
+        void accept(long key, int third, int count);
+    }
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] thirds;
+    private int[] counts;
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    public NGramCounter() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public static long pack(int first, int second) {
+        return (long) first << 32 | (second & 0xFFFFFFFFL);
+    }
+
+    public static int first(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static int second(long key) {
+        return (int) key;
+    }
+
+    public void add(long key, int third) {
+        add(key, third, 1);
+    }
+
+    public void add(long key, int third, int count) {
+        int slot = slot(key, third);
+        while (counts[slot] != 0) {
+            if (keys[slot] == key && thirds[slot] == third) {
+                counts[slot] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        thirds[slot] = third;
+        counts[slot] = count;
+        if (++size > resizeAt) {
+            rehash();
+        }
+    }
+
+    public void addAll(NGramCounter other) {
+        other.forEach(this::add);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(NGramConsumer action) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                action.accept(keys[i], thirds[i], counts[i]);
+            }
+        }
+    }
+
+    private int slot(long key, int third) {
+        long h = (key ^ (third * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ h >>> 32) & mask;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldThirds = thirds;
+        int[] oldCounts = counts;
+        allocate(oldCounts.length << 1);
+        for (int i = 0; i < oldCounts.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = slot(oldKeys[i], oldThirds[i]);
+                while (counts[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                thirds[slot] = oldThirds[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        thirds = new int[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = capacity * 3 / 4;
+    }
+}
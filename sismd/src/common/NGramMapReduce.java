@@ -0,0 +1,141 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*  Counts word n-grams (n = 2 or 3) of consecutive words within a page. Words become ids
+    through one shared WordDictionary and n-grams are counted as packed keys in an
+    NGramCounter, so no String is built per n-gram.
+
+    Same structure as MapReduce's local mode: map() borrows an idle worker (tokenizer,
+    dictionary cache and counter) from a pool, so no other thread touches it meanwhile and
+    one-shot virtual threads reuse workers instead of each warming up its own cache.
+    getCounts() folds the worker counters together once the workers are done. Phrases
+    are only spelled out for the top-K candidates.
+*/
+public class NGramMapReduce {
+
+    public interface WordSource {
+        void forEachWord(Tokenizer.WordSink sink);
+    }
+
+    private final int n;
+    private final boolean compatibleWords;
+    private final WordDictionary dictionary = new WordDictionary();
+    private final Queue<Worker> workers = new ConcurrentLinkedQueue<>();
+    private final Queue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+    private NGramCounter total;
+
+    public NGramMapReduce(int n, boolean compatibleWords) {
+        if (n < 2 || n > 3) {
+            throw new IllegalArgumentException("n-grams of 2 or 3 words, not " + n);
+        }
+        this.n = n;
+        this.compatibleWords = compatibleWords;
+    }
+
+    public int n() { return n; }
+
+    public void map(Page page) {
+        Worker worker = borrow();
+        worker.tokenizer.forEachWord(page, worker);
+        idleWorkers.offer(worker);
+    }
+
+    /* Words already tokenized elsewhere (e.g. FlowSolution's chunks), one page per call. */
+    public void map(WordSource words) {
+        Worker worker = borrow();
+        words.forEachWord(worker);
+        idleWorkers.offer(worker);
+    }
+
+    // Must run after the map() calls it should see have completed (e.g. after join/awaitTermination)
+    public synchronized NGramCounter getCounts() {
+        if (total == null) {
+            total = new NGramCounter();
+        }
+        for (Worker worker : workers) {
+            if (worker.counts.size() > total.size()) {
+                worker.counts.addAll(total);
+                total = worker.counts;
+            } else {
+                total.addAll(worker.counts);
+            }
+            worker.counts = new NGramCounter();
+        }
+        return total;
+    }
+
+    /* The k most frequent n-grams as space-separated phrases, ties broken alphabetically. */
+    public List<Map.Entry<String, Integer>> top(int k) {
+        Comparator<Map.Entry<String, Integer>> ascending = Map.Entry.<String, Integer>comparingByValue()
+                .thenComparing(Map.Entry.<String, Integer>comparingByKey().reversed());
+        PriorityQueue<Map.Entry<String, Integer>> heap = new PriorityQueue<>(Math.max(1, k), ascending);
+        getCounts().forEach((key, third, count) -> {
+            if (heap.size() < k) {
+                heap.add(Map.entry(phrase(key, third), count));
+                return;
+            }
+            Map.Entry<String, Integer> min = heap.peek();
+            if (min != null && count >= min.getValue()) {
+                Map.Entry<String, Integer> entry = Map.entry(phrase(key, third), count);
+                if (ascending.compare(entry, min) > 0) {
+                    heap.poll();
+                    heap.add(entry);
+                }
+            }
+        });
+        List<Map.Entry<String, Integer>> result = new ArrayList<>(heap);
+        result.sort(ascending.reversed());
+        return result;
+    }
+
+    public void printTopPhrases(int k) {
+        System.out.println("Distinct " + n + "-grams: " + getCounts().size() + " over " + dictionary.size() + " words");
+        top(k).forEach(entry -> System.out
+                .println("Phrase: '" + entry.getKey() + "' with total " + entry.getValue() + " occurrences!"));
+    }
+
+    private String phrase(long key, int third) {
+        String phrase = dictionary.word(NGramCounter.first(key)) + ' ' + dictionary.word(NGramCounter.second(key));
+        return n == 3 ? phrase + ' ' + dictionary.word(third) : phrase;
+    }
+
+    private Worker borrow() {
+        Worker worker = idleWorkers.poll();
+        if (worker == null) {
+            worker = new Worker();
+            workers.add(worker);
+        }
+        worker.previous = -1;
+        worker.beforePrevious = -1;
+        return worker;
+    }
+
+    private class Worker implements Tokenizer.WordSink {
+        final Tokenizer tokenizer = new Tokenizer(compatibleWords);
+        final WordDictionary.Local ids = dictionary.local();
+        NGramCounter counts = new NGramCounter();
+        int previous;
+        int beforePrevious;
+
+        @Override
+        public void accept(char[] chars, int offset, int length) {
+            int id = ids.id(chars, offset, length);
+            if (n == 2) {
+                if (previous >= 0) {
+                    counts.add(NGramCounter.pack(previous, id), 0);
+                }
+            } else if (beforePrevious >= 0) {
+                counts.add(NGramCounter.pack(beforePrevious, previous), id);
+            }
+            beforePrevious = previous;
+            previous = id;
+        }
+    }
+}
@@ -9,4 +9,5 @@ public class Page {
 
   public String getTitle() { return title; }
   public String getText() { return text; }
+  public int getTextLength() { return text.length(); }
 }
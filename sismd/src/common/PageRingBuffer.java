@@ -0,0 +1,148 @@
+package common;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*  Single-producer / multi-consumer ring of preallocated page slots.
+    The producer publishes pages in order by advancing `published`; consumers claim a run
+    of published slots with one CAS on `claimed` and hand each slot back by bumping its
+    sequence one lap ahead, which is what the producer waits for before reusing it.
+    close() marks the end of the stream, so consumers stop as soon as the ring is drained
+    instead of polling with a timeout.
+
+    A thread with nothing to do spins briefly and then sleeps on a condition. The other
+    side only takes the lock to wake it when someone is registered as waiting, so the
+    steady state is lock-free.
+*/
+public class PageRingBuffer {
+
+    private static final int SPINS = 64;
+
+    private final Page[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long published;
+    private volatile boolean closed;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private volatile int waitingConsumers;
+    private volatile boolean producerWaiting;
+
+    public PageRingBuffer(int capacity) {
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        slots = new Page[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /* Only one thread may call put() and close(). */
+    public void put(Page page) throws InterruptedException {
+        long position = published;
+        int index = (int) position & mask;
+        for (int spins = 0; sequences.get(index) != position; spins++) {
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                awaitFreeSlot(index, position);
+            }
+        }
+        slots[index] = page;
+        published = position + 1;
+        if (waitingConsumers > 0) {
+            signal(notEmpty, false);
+        }
+    }
+
+    /* Pages published but not claimed yet; approximate while threads are moving them. */
+    public int size() {
+        return (int) Math.max(0, published - claimed.get());
+    }
+
+    public void close() {
+        closed = true;
+        signal(notEmpty, true);
+    }
+
+    /*  Blocks until at least one page is available, then moves up to maxPages of them into
+        batch. Returns the number of pages added, or -1 once the ring is closed and empty.
+    */
+    public int drainTo(List<Page> batch, int maxPages) throws InterruptedException {
+        for (int spins = 0; ; spins++) {
+            long start = claimed.get();
+            boolean done = closed;
+            long available = published - start;
+            if (available > 0) {
+                int count = (int) Math.min(available, maxPages);
+                if (claimed.compareAndSet(start, start + count)) {
+                    for (long position = start; position < start + count; position++) {
+                        int index = (int) position & mask;
+                        batch.add(slots[index]);
+                        slots[index] = null;
+                        sequences.set(index, position + slots.length);
+                    }
+                    if (producerWaiting) {
+                        signal(notFull, false);
+                    }
+                    return count;
+                }
+            } else if (done) {
+                return -1;
+            } else if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                awaitPages();
+            }
+        }
+    }
+
+    private void awaitPages() throws InterruptedException {
+        lock.lock();
+        try {
+            waitingConsumers++;
+            while (published == claimed.get() && !closed) {
+                notEmpty.await();
+            }
+        } finally {
+            waitingConsumers--;
+            lock.unlock();
+        }
+    }
+
+    private void awaitFreeSlot(int index, long position) throws InterruptedException {
+        lock.lock();
+        try {
+            producerWaiting = true;
+            while (sequences.get(index) != position) {
+                notFull.await();
+            }
+        } finally {
+            producerWaiting = false;
+            lock.unlock();
+        }
+    }
+
+    private void signal(Condition condition, boolean all) {
+        lock.lock();
+        try {
+            if (all) {
+                condition.signalAll();
+            } else {
+                condition.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
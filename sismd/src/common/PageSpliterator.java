@@ -0,0 +1,80 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/*  Spliterator over a page source whose trySplit() hands off fixed-size batches pulled
+    from the parser, so parallel streams and ForkJoin tasks can start counting while the
+    rest of the dump is still being read. Pages are never buffered beyond one batch here.
+*/
+public class PageSpliterator implements Spliterator<Page> {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final Iterator<Page> pages;
+    private final int batchSize;
+    private boolean exhausted;
+
+    public PageSpliterator(Iterable<Page> pages) {
+        this(pages, DEFAULT_BATCH_SIZE);
+    }
+
+    public PageSpliterator(Iterable<Page> pages, int batchSize) {
+        this.pages = pages.iterator();
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /* Next batch of up to batchSize pages; empty once the source is exhausted. */
+    public List<Page> nextBatch() {
+        List<Page> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize) {
+            Page page = next();
+            if (page == null) {
+                break;
+            }
+            batch.add(page);
+        }
+        return batch;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Page> action) {
+        Page page = next();
+        if (page == null) {
+            return false;
+        }
+        action.accept(page);
+        return true;
+    }
+
+    @Override
+    public Spliterator<Page> trySplit() {
+        List<Page> batch = nextBatch();
+        return batch.isEmpty() ? null : batch.spliterator();
+    }
+
+    @Override
+    public long estimateSize() {
+        return exhausted ? 0 : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    // Pages signals the end of the dump with a null page
+    private Page next() {
+        if (!exhausted && pages.hasNext()) {
+            Page page = pages.next();
+            if (page != null) {
+                return page;
+            }
+        }
+        exhausted = true;
+        return null;
+    }
+}
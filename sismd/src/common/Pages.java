@@ -1,10 +1,13 @@
 package common;
 
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Iterator;
 import javax.xml.stream.events.XMLEvent;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
 
 public class Pages implements Iterable<Page> {
 
@@ -16,58 +19,96 @@ public class Pages implements Iterable<Page> {
     this.fileName = fileName;
   }
 
-  private class PageIterator implements Iterator<Page> {
+  /*  Closes its input at the end, at the page limit and on an error, which is rethrown
+      (a truncated or corrupt .gz must not end like the dump did). A caller that stops
+      early closes it itself, so the gunzip workers of a .gz are not left blocked.
+  */
+  private class PageIterator implements Iterator<Page>, AutoCloseable {
 
+    private final InputStream in;
     private final XMLEventReader reader;
     private int remainingPages;
+    private boolean closed;
 
     public PageIterator() throws Exception {
       remainingPages = maxPages;
       System.out.println("Max pages: "+maxPages);
-      reader = XMLInputFactory.newInstance().createXMLEventReader(new FileInputStream(fileName));
+      in = open(fileName);
+      reader = XMLInputFactory.newInstance().createXMLEventReader(in);
     }
 
     public boolean hasNext() { 
-      return remainingPages > 0; 
+      if (remainingPages > 0)
+        return true;
+      close();
+      return false;
     }
 
     public Page next() {
       try {
-        XMLEvent event;
-        String title = "";
-        String text = "";
-        while (true) {
-          event = reader.nextEvent();
-          if (event.isStartElement()) {
-            if (event.asStartElement().getName().getLocalPart().equals("page")) {
-              while (true) {
-                event = reader.nextEvent();
-                if (event.isStartElement()) {
-                  String name = event.asStartElement().getName().getLocalPart();
-                  if (name.equals("title"))
-                    title = reader.getElementText();
-                  else if (name.equals("text")) 
-                    text = reader.getElementText();
-                } else if (event.isEndElement()) {
-                  if (event.asEndElement().getName().getLocalPart().equals("page")) {
-                    --remainingPages;
-                    return new Page(title, text);
-                  }
-                }
-              }
-            }
-          }
+        Page page = readPage(reader);
+        if (page != null) {
+          --remainingPages;
+          return page;
         }
       } catch (Exception e) {
-        //e.printStackTrace(System.out);
-        System.out.println("No more pages!");
+        close();
+        throw new RuntimeException("Failed to read a page from " + fileName, e);
       }
+      System.out.println("No more pages!");
 
       remainingPages = 0;
+      close();
       return null;
     }
 
     public void remove() { throw new UnsupportedOperationException(); }
+
+    public void close() {
+      if (closed)
+        return;
+      closed = true;
+      try {
+        reader.close();
+        in.close();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /* .gz dumps, single or multi-member, are decompressed on worker threads while the parser reads. */
+  static InputStream open(String fileName) throws IOException {
+    if (fileName.endsWith(".gz"))
+      return new ParallelGzipInputStream(fileName);
+    return new FileInputStream(fileName);
+  }
+
+  static Page readPage(XMLEventReader reader) throws XMLStreamException {
+    XMLEvent event;
+    String title = "";
+    String text = "";
+    while (reader.hasNext()) {
+      event = reader.nextEvent();
+      if (event.isStartElement()) {
+        if (event.asStartElement().getName().getLocalPart().equals("page")) {
+          while (true) {
+            event = reader.nextEvent();
+            if (event.isStartElement()) {
+              String name = event.asStartElement().getName().getLocalPart();
+              if (name.equals("title"))
+                title = reader.getElementText();
+              else if (name.equals("text")) 
+                text = reader.getElementText();
+            } else if (event.isEndElement()) {
+              if (event.asEndElement().getName().getLocalPart().equals("page"))
+                return new Page(title, text);
+            }
+          }
+        }
+      }
+    }
+    return null;
   }
 
   public Iterator<Page> iterator() {
@@ -0,0 +1,299 @@
+package common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/*  Decompresses a (multi-member) gzip file with one worker per member and streams the
+    members back in file order, so decompression runs ahead of the XML parser instead of
+    in line with it.
+
+    Member boundaries are only known once the previous member has been inflated, so
+    workers start speculatively at every offset that looks like a gzip header, a few
+    candidates ahead of the member being read. A worker that started inside another
+    member fails its header, its inflate or its CRC check and is simply never read from.
+    Each worker hands its output over in CHUNK_SIZE buffers through a queue of
+    CHUNKS_PER_MEMBER slots, which bounds the memory used by work done ahead of time.
+    A plain single-member file still gets one worker, overlapping inflate with parsing.
+
+    The search for candidates is done a SCAN_STEP at a time as chunks are read, never goes
+    further than SCAN_AHEAD per worker past where the first member has inflated to, and
+    skips what it already inflated, so a large single-member file is not read twice
+    before the first byte comes out. Inputs over WINDOW are mapped once per WINDOW,
+    shared by every member.
+*/
+public final class ParallelGzipInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 1 << 18;
+    private static final int CHUNKS_PER_MEMBER = 8;
+    private static final long WINDOW = 1L << 30; // remap the input every 1GB
+    private static final long OVERLAP = 1 << 16; // so a header at the end of a window is still whole
+    private static final long SCAN_STEP = 4L * CHUNK_SIZE;
+    private static final long SCAN_AHEAD = 16L << 20;
+    private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+    private static final byte[] END = new byte[0];
+
+    private final FileChannel channel;
+    private final long size;
+    private final ByteBuffer[] windows; // mapped on first use, shared by all members
+    private final ExecutorService workers;
+    private final int lookahead;
+    private final Deque<Member> members = new ArrayDeque<>();
+    private long scanned;
+    private byte[] chunk = END;
+    private int chunkPosition;
+    private boolean finished;
+
+    public ParallelGzipInputStream(String fileName) throws IOException {
+        this(fileName, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelGzipInputStream(String fileName, int threads) throws IOException {
+        channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+        size = channel.size();
+        windows = new ByteBuffer[(int) Math.max(1, (size + WINDOW - 1) / WINDOW)];
+        lookahead = Math.max(1, threads);
+        workers = Executors.newFixedThreadPool(lookahead, runnable -> {
+            Thread thread = new Thread(runnable, "gunzip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        schedule(0);
+        if (members.isEmpty() || members.peekFirst().start != 0) {
+            close();
+            throw new IOException("Not in GZIP format: " + fileName);
+        }
+    }
+
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (chunkPosition == chunk.length) {
+            if (finished || !nextChunk()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, chunk.length - chunkPosition);
+        System.arraycopy(chunk, chunkPosition, b, off, n);
+        chunkPosition += n;
+        return n;
+    }
+
+    public void close() throws IOException {
+        finished = true;
+        for (Member member : members) {
+            member.future.cancel(true);
+        }
+        members.clear();
+        workers.shutdownNow();
+        channel.close();
+        synchronized (windows) {
+            Arrays.fill(windows, null); // unmapped once nothing else refers to them
+        }
+    }
+
+    // Moves to the next chunk of the current member, or on to the member that starts where it ended
+    private boolean nextChunk() throws IOException {
+        Member current = members.peekFirst();
+        schedule(current.inflated);
+        try {
+            byte[] next = current.chunks.take();
+            if (next != END) {
+                chunk = next;
+                chunkPosition = 0;
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decompressing", e);
+        }
+        if (current.error != null) {
+            throw current.error;
+        }
+        members.removeFirst();
+        // Speculative workers that started inside the member just read were false starts
+        while (!members.isEmpty() && members.peekFirst().start < current.end) {
+            members.removeFirst().future.cancel(true);
+        }
+        schedule(current.end);
+        // Anything that is not a member right after this one is trailing padding, as for GZIPInputStream
+        if (members.isEmpty() || members.peekFirst().start != current.end) {
+            finished = true;
+            return false;
+        }
+        return true;
+    }
+
+    // reached: how far the member being read has inflated; the next member starts after that
+    private void schedule(long reached) throws IOException {
+        scanned = Math.max(scanned, reached);
+        long horizon = Math.min(size, reached + lookahead * SCAN_AHEAD);
+        long limit = Math.min(horizon, scanned + SCAN_STEP);
+        while (members.size() < lookahead && scanned < limit) {
+            long start = nextHeader(scanned, limit);
+            if (start < 0) {
+                scanned = limit;
+                return;
+            }
+            scanned = start + 1;
+            Member member = new Member(start);
+            member.future = workers.submit(member::inflate);
+            members.addLast(member);
+        }
+    }
+
+    // Offset of the next ID1 ID2 CM=deflate with no reserved flag bits in [from, to)
+    private long nextHeader(long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        for (long pos = from; pos < to && pos + 4 <= size; pos += buffer.capacity() - 3) {
+            buffer.clear();
+            int n = channel.read(buffer, pos);
+            for (int i = 0; i + 4 <= n && pos + i < to; i++) {
+                if (buffer.get(i) == (byte) 0x1f && buffer.get(i + 1) == (byte) 0x8b
+                        && buffer.get(i + 2) == 8 && (buffer.get(i + 3) & 0xe0) == 0) {
+                    return pos + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private ByteBuffer window(int w) throws IOException {
+        synchronized (windows) {
+            if (windows[w] == null) {
+                long from = w * WINDOW;
+                windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(WINDOW + OVERLAP, size - from));
+            }
+            return windows[w];
+        }
+    }
+
+    private class Member {
+
+        final long start;
+        final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS_PER_MEMBER);
+        Future<?> future;
+        volatile long end;
+        volatile long inflated; // input position reached so far
+        volatile IOException error;
+        private ByteBuffer input;
+        private long inputStart;
+
+        Member(long start) {
+            this.start = start;
+        }
+
+        void inflate() {
+            Inflater inflater = new Inflater(true);
+            try {
+                map(start);
+                skipHeader();
+                inflater.setInput(input);
+                CRC32 crc = new CRC32();
+                long length = 0;
+                byte[] out = new byte[CHUNK_SIZE];
+                int filled = 0;
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        long next = inputStart + input.limit();
+                        if (next >= size) {
+                            throw new IOException("Unexpected end of GZIP member at " + start);
+                        }
+                        map(next);
+                        inflater.setInput(input);
+                    } else if (inflater.needsDictionary()) {
+                        throw new IOException("Corrupt GZIP member at " + start);
+                    }
+                    int n = inflater.inflate(out, filled, out.length - filled);
+                    inflated = inputStart + input.position();
+                    crc.update(out, filled, n);
+                    filled += n;
+                    length += n;
+                    if (filled == out.length) {
+                        chunks.put(out);
+                        out = new byte[CHUNK_SIZE];
+                        filled = 0;
+                    }
+                }
+                // The inflater advances the input buffer, so its position is where the trailer starts
+                long trailer = inputStart + input.position();
+                if (trailer + 8 > size || readIntLE(trailer) != (int) crc.getValue() || readIntLE(trailer + 4) != (int) length) {
+                    throw new IOException("GZIP CRC or length mismatch in member at " + start);
+                }
+                if (filled > 0) {
+                    chunks.put(Arrays.copyOf(out, filled));
+                }
+                end = trailer + 8;
+            } catch (InterruptedException e) {
+                return; // cancelled: this member was a false start or the stream was closed
+            } catch (IOException e) {
+                error = e;
+            } catch (DataFormatException | RuntimeException e) {
+                error = new IOException("Corrupt GZIP member at " + start, e);
+            } finally {
+                inflater.end();
+            }
+            try {
+                chunks.put(END);
+            } catch (InterruptedException e) {
+                // cancelled while waiting for room, nobody will read it
+            }
+        }
+
+        private void skipHeader() throws IOException {
+            int flags = input.get(3);
+            input.position(10);
+            if ((flags & FEXTRA) != 0) {
+                int extra = (input.get() & 0xff) | (input.get() & 0xff) << 8;
+                input.position(input.position() + extra);
+            }
+            if ((flags & FNAME) != 0) {
+                while (input.get() != 0) {
+                    // skip the file name
+                }
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (input.get() != 0) {
+                    // skip the comment
+                }
+            }
+            if ((flags & FHCRC) != 0) {
+                input.position(input.position() + 2);
+            }
+        }
+
+        private void map(long from) throws IOException {
+            int w = (int) (from / WINDOW);
+            ByteBuffer window = window(w);
+            inputStart = from;
+            input = window.slice((int) (from - w * WINDOW), (int) (window.limit() - (from - w * WINDOW)));
+        }
+
+        private int readIntLE(long position) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(buffer, position);
+            return buffer.getInt(0);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*  Wire format of a partial count map sent from a worker to the coordinator: the number of
+    words, then the words sorted by UTF-8 bytes, each as the length of the prefix it shares
+    with the previous word, the length and bytes of the rest and its count. Lengths and
+    counts are unsigned varints. Neighbouring words in sorted order share long prefixes,
+    so most words cost a few bytes beyond their new suffix.
+*/
+public class PartialCounts {
+
+    public static final int PADDED_SIZE = 5;
+
+    public static void write(WordCounter counts, DataOutputStream out) throws IOException {
+        byte[][] words = new byte[counts.size()][];
+        int[] next = {0};
+        counts.forEach((word, count) -> words[next[0]++] = word.getBytes(StandardCharsets.UTF_8));
+        Arrays.sort(words, Arrays::compareUnsigned);
+
+        writeVarint(out, words.length);
+        Writer writer = new Writer(out);
+        for (byte[] word : words) {
+            writer.add(word, counts.get(new String(word, StandardCharsets.UTF_8)));
+        }
+    }
+
+    public static WordCounter read(DataInputStream in) throws IOException {
+        Reader reader = new Reader(in);
+        WordCounter counts = new WordCounter(reader.size());
+        while (reader.next()) {
+            counts.add(new String(reader.word(), StandardCharsets.UTF_8), reader.count());
+        }
+        return counts;
+    }
+
+    /* Reads the words of one serialized map back one at a time, in sorted order. */
+    public static class Reader {
+
+        private final DataInputStream in;
+        private final int size;
+        private int read;
+        private byte[] word = new byte[0];
+        private int count;
+
+        public Reader(DataInputStream in) throws IOException {
+            this.in = in;
+            this.size = readVarint(in);
+        }
+
+        public int size() { return size; }
+
+        public boolean next() throws IOException {
+            if (read == size) {
+                return false;
+            }
+            int shared = readVarint(in);
+            int rest = readVarint(in);
+            if (shared > word.length) {
+                throw new IOException("Corrupt partial counts");
+            }
+            word = Arrays.copyOf(word, shared + rest);
+            in.readFully(word, shared, rest);
+            count = readVarint(in);
+            read++;
+            return true;
+        }
+
+        /* UTF-8 bytes of the current word; a new array for every word. */
+        public byte[] word() { return word; }
+
+        public int count() { return count; }
+    }
+
+    /*  Writes words given in sorted order after a size written separately, e.g. as
+        paddedSize() patched in at the start once the words are written.
+    */
+    public static class Writer {
+
+        private final DataOutputStream out;
+        private byte[] previous = new byte[0];
+
+        public Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void add(byte[] word, int count) throws IOException {
+            int shared = Arrays.mismatch(previous, word); // never -1: that means equal, and the words are distinct
+            writeVarint(out, shared);
+            writeVarint(out, word.length - shared);
+            out.write(word, shared, word.length - shared);
+            writeVarint(out, count);
+            previous = word;
+        }
+    }
+
+    /* size as a varint padded to a fixed PADDED_SIZE bytes, which readers decode like any other. */
+    public static byte[] paddedSize(int size) {
+        byte[] bytes = new byte[PADDED_SIZE];
+        for (int i = 0; i < PADDED_SIZE; i++) {
+            bytes[i] = (byte) ((size >>> (7 * i)) & 0x7f | (i < PADDED_SIZE - 1 ? 0x80 : 0));
+        }
+        return bytes;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt varint in partial counts");
+    }
+}
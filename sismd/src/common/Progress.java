@@ -0,0 +1,347 @@
+package common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+import javax.management.ConstructorParameters;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*  Live view of a running engine: pages, input and tokens per second, distinct words,
+    queue depths, heap, GC and the current top words. Registered as the MXBean
+    sismd:type=Progress (jconsole, jcmd) and, with --http PORT, served as JSON from
+    http://localhost:PORT/progress.
+
+    The counting path only pays one LongAdder add per page (track()) and per tokenized
+    text (Tokenizer.tokens()). A sampler thread turns those into per-second rates. Distinct
+    and top words cost a pass over the counts, so they are only computed after a reader
+    asked, at most once per SNAPSHOT_MILLIS: by the sampler for counts that are safe to read
+    while workers write (pull()), or by the counting thread itself, when snapshotWanted()
+    says so, for counts only that thread may touch (publish()). Readers get the latest
+    snapshot and its age; the first read only asks for one.
+
+    Input is the page text, in chars for parsed pages and bytes for --bytes pages, since
+    not every parser knows its position in the file.
+*/
+public class Progress implements ProgressMXBean {
+
+    public static final String OBJECT_NAME = "sismd:type=Progress";
+    private static final long SAMPLE_MILLIS = 1000;
+    private static final long SNAPSHOT_MILLIS = 1000;
+
+    private final String engine;
+    private final int topN;
+    private final long startNanos = System.nanoTime();
+    private final long startTokens = Tokenizer.tokens();
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder inputBytes = new LongAdder();
+    private final Map<String, LongSupplier> queues = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final ScheduledExecutorService sampler;
+    private HttpServer server;
+    private ObjectName name;
+    private volatile double[] rates = new double[3]; // pages, input bytes and tokens per second
+    private long[] lastSample; // nanos, pages, input bytes, tokens
+    private volatile LongSupplier distinctSource;
+    private volatile IntFunction<List<? extends Map.Entry<String, ? extends Number>>> topSource;
+    private volatile boolean snapshotRequested;
+    private volatile boolean snapshotWanted;
+    private volatile Snapshot snapshot;
+
+    private Progress(String engine, int topN) {
+        this.engine = engine;
+        this.topN = topN;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lastSample = new long[] { startNanos, 0, 0, startTokens };
+    }
+
+    /* Starts sampling and registers the MXBean (unless another Progress in this JVM has). */
+    public static Progress start(String engine, int topN) {
+        Progress progress = new Progress(engine, topN);
+        progress.sampler.scheduleAtFixedRate(progress::sample, SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (!mbeans.isRegistered(objectName)) {
+                mbeans.registerMBean(progress, objectName);
+                progress.name = objectName;
+            }
+        } catch (JMException e) {
+            System.out.println("Progress MXBean not registered: " + e.getMessage());
+        }
+        return progress;
+    }
+
+    /* Serves the progress as JSON on localhost:port/progress until close(). */
+    public Progress serve(int port) {
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/progress", this::handle);
+            // Started from the daemon sampler thread so the dispatcher thread is a daemon too
+            // and a run that dies without close() still exits
+            sampler.submit(server::start).get();
+            System.out.println("Progress at http://localhost:" + server.getAddress().getPort() + "/progress");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Could not start the progress server", e);
+        }
+        return this;
+    }
+
+    /* Counts each element as a page of size bytes of input as it is handed out; nulls are skipped. */
+    public <T> Iterable<T> track(Iterable<T> source, ToLongFunction<? super T> size) {
+        return () -> {
+            Iterator<T> iterator = source.iterator();
+            return new Iterator<T>() {
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                public T next() {
+                    T page = iterator.next();
+                    if (page != null) {
+                        pages.increment();
+                        inputBytes.add(size.applyAsLong(page));
+                    }
+                    return page;
+                }
+            };
+        };
+    }
+
+    /* Input size of a page as track() counts it; a cached page counts its token stream. */
+    public static long size(Page page) {
+        return page instanceof TokenCache.CachedPage cached ? cached.tokenBytes() : page.getText().length();
+    }
+
+    public void queue(String queueName, LongSupplier depth) {
+        queues.put(queueName, depth);
+    }
+
+    /* Counts that can be read while they are being written; the sampler snapshots them. */
+    public void pull(LongSupplier distinct, IntFunction<List<? extends Map.Entry<String, ? extends Number>>> top) {
+        this.distinctSource = distinct;
+        this.topSource = top;
+    }
+
+    /* One volatile read: true when a reader is waiting for a snapshot the counting thread should publish(). */
+    public boolean snapshotWanted() {
+        return snapshotWanted;
+    }
+
+    public void publish(long distinct, List<? extends Map.Entry<String, ? extends Number>> top) {
+        snapshotWanted = false;
+        snapshot = new Snapshot(distinct, top);
+    }
+
+    public void publish(WordCounter counts) {
+        publish(counts.size(), TopK.of(counts, topN));
+    }
+
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+        }
+        sampler.shutdownNow();
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                // the JVM is going away anyway
+            }
+        }
+    }
+
+    @Override
+    public String getEngine() { return engine; }
+
+    @Override
+    public double getElapsedSeconds() { return (System.nanoTime() - startNanos) / 1e9; }
+
+    @Override
+    public long getPages() { return pages.sum(); }
+
+    @Override
+    public double getPagesPerSecond() { return rates[0]; }
+
+    @Override
+    public long getInputBytes() { return inputBytes.sum(); }
+
+    @Override
+    public double getInputMegabytesPerSecond() { return rates[1] / (1 << 20); }
+
+    @Override
+    public long getTokens() { return Tokenizer.tokens() - startTokens; }
+
+    @Override
+    public double getTokensPerSecond() { return rates[2]; }
+
+    @Override
+    public long getDistinctWords() {
+        Snapshot current = requestSnapshot();
+        return current == null ? -1 : current.distinct;
+    }
+
+    @Override
+    public List<WordCount> getTopWords() {
+        Snapshot current = requestSnapshot();
+        return current == null ? List.of() : current.top;
+    }
+
+    @Override
+    public long getSnapshotAgeMillis() {
+        Snapshot current = snapshot;
+        return current == null ? -1 : (System.nanoTime() - current.nanos) / 1_000_000;
+    }
+
+    @Override
+    public Map<String, Long> getQueueDepths() {
+        Map<String, Long> depths = new LinkedHashMap<>();
+        synchronized (queues) {
+            queues.forEach((queueName, depth) -> depths.put(queueName, depth.getAsLong()));
+        }
+        return depths;
+    }
+
+    @Override
+    public long getHeapUsedBytes() { return heap().getUsed(); }
+
+    @Override
+    public long getHeapMaxBytes() { return heap().getMax(); }
+
+    @Override
+    public long getGcCount() { return Metrics.gcCount(); }
+
+    @Override
+    public long getGcPauseMillis() { return Metrics.gcTime(); }
+
+    public String toJson() {
+        Snapshot current = requestSnapshot();
+        MemoryUsage heap = heap();
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.US, "{\"engine\":\"%s\",\"elapsedSeconds\":%.3f,\"pages\":%d,\"pagesPerSecond\":%.1f,"
+                        + "\"inputBytes\":%d,\"inputMegabytesPerSecond\":%.3f,\"tokens\":%d,\"tokensPerSecond\":%.1f,"
+                        + "\"distinctWords\":%d,\"snapshotAgeMillis\":%d,\"heap\":{\"usedBytes\":%d,\"committedBytes\":%d,"
+                        + "\"maxBytes\":%d},\"gc\":{\"count\":%d,\"pauseMillis\":%d},\"queues\":{",
+                Metrics.escape(engine), getElapsedSeconds(), getPages(), getPagesPerSecond(), getInputBytes(),
+                getInputMegabytesPerSecond(), getTokens(), getTokensPerSecond(), current == null ? -1 : current.distinct,
+                getSnapshotAgeMillis(), heap.getUsed(), heap.getCommitted(), heap.getMax(), getGcCount(), getGcPauseMillis()));
+        String separator = "";
+        for (Map.Entry<String, Long> queue : getQueueDepths().entrySet()) {
+            json.append(separator).append('"').append(Metrics.escape(queue.getKey())).append("\":").append(queue.getValue());
+            separator = ",";
+        }
+        json.append("},\"top\":[");
+        separator = "";
+        for (WordCount word : current == null ? List.<WordCount>of() : current.top) {
+            json.append(separator).append("{\"word\":\"").append(Metrics.escape(word.getWord()))
+                    .append("\",\"count\":").append(word.getCount()).append('}');
+            separator = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    private Snapshot requestSnapshot() {
+        snapshotRequested = true;
+        return snapshot;
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        long[] sample = { now, pages.sum(), inputBytes.sum(), Tokenizer.tokens() };
+        double seconds = Math.max(1, now - lastSample[0]) / 1e9;
+        rates = new double[] {
+                (sample[1] - lastSample[1]) / seconds,
+                (sample[2] - lastSample[2]) / seconds,
+                (sample[3] - lastSample[3]) / seconds };
+        lastSample = sample;
+
+        Snapshot current = snapshot;
+        if (snapshotRequested && (current == null || now - current.nanos >= TimeUnit.MILLISECONDS.toNanos(SNAPSHOT_MILLIS))) {
+            snapshotRequested = false;
+            if (topSource != null) {
+                List<? extends Map.Entry<String, ? extends Number>> top = topSource.apply(topN);
+                snapshot = top == null ? null : new Snapshot(distinctSource.getAsLong(), top);
+            } else {
+                snapshotWanted = true;
+            }
+        }
+    }
+
+    private static MemoryUsage heap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = toJson().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /* One of the top words, as the MXBean shows it. */
+    public static class WordCount {
+        private final String word;
+        private final long count;
+
+        @ConstructorParameters({ "word", "count" })
+        public WordCount(String word, long count) {
+            this.word = word;
+            this.count = count;
+        }
+
+        public String getWord() { return word; }
+
+        public long getCount() { return count; }
+    }
+
+    private static final class Snapshot {
+        final long distinct;
+        final List<WordCount> top;
+        final long nanos = System.nanoTime();
+
+        Snapshot(long distinct, List<? extends Map.Entry<String, ? extends Number>> top) {
+            this.distinct = distinct;
+            this.top = new ArrayList<>(top.size());
+            for (Map.Entry<String, ? extends Number> entry : top) {
+                this.top.add(new WordCount(entry.getKey(), entry.getValue().longValue()));
+            }
+        }
+    }
+}
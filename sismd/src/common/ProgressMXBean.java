@@ -0,0 +1,42 @@
+package common;
+
+import java.util.List;
+import java.util.Map;
+
+/* Attributes of the sismd:type=Progress MXBean; see Progress. Rates are over the last second. */
+public interface ProgressMXBean {
+
+    String getEngine();
+
+    double getElapsedSeconds();
+
+    long getPages();
+
+    double getPagesPerSecond();
+
+    long getInputBytes();
+
+    double getInputMegabytesPerSecond();
+
+    long getTokens();
+
+    double getTokensPerSecond();
+
+    /* -1 until a snapshot exists, or when the engine only has its counts once it is done. */
+    long getDistinctWords();
+
+    List<Progress.WordCount> getTopWords();
+
+    /* -1 until a snapshot exists. */
+    long getSnapshotAgeMillis();
+
+    Map<String, Long> getQueueDepths();
+
+    long getHeapUsedBytes();
+
+    long getHeapMaxBytes();
+
+    long getGcCount();
+
+    long getGcPauseMillis();
+}
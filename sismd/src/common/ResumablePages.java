@@ -0,0 +1,158 @@
+package common;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+
+/*  Pages starting at a byte offset of the dump, each one parsed by StAX on its own
+    <page>...</page> byte range, so offset() can tell exactly where the next run has to
+    pick up. A page that is not complete yet (a dump still being appended to, or cut
+    short) ends the iteration and is left for the next run.
+*/
+public class ResumablePages implements Iterable<Page> {
+
+  private static final byte[] PAGE_OPEN = "<page".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PAGE_CLOSE = "</page>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ROOT_OPEN = "<mediawiki>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ROOT_CLOSE = "</mediawiki>".getBytes(StandardCharsets.US_ASCII);
+  private static final long WINDOW = 1L << 30;
+
+  private final int maxPages;
+  private final String fileName;
+  private final long startOffset;
+  private long offset;
+
+  public ResumablePages(int maxPages, String fileName, long startOffset) {
+    this.maxPages = maxPages;
+    this.fileName = fileName;
+    this.startOffset = startOffset;
+    this.offset = startOffset;
+  }
+
+  /* Byte offset just after the last page returned so far (startOffset before the first). */
+  public long offset() { return offset; }
+
+  private class PageIterator implements Iterator<Page> {
+
+    private final FileChannel channel;
+    private final long size;
+    private final XMLInputFactory factory = XMLInputFactory.newInstance();
+    private ByteBuffer window;
+    private long windowStart;
+    private int remainingPages;
+    private Page next;
+    private long nextEnd;
+
+    PageIterator() throws IOException {
+      remainingPages = maxPages;
+      System.out.println("Max pages: " + maxPages + ", starting at byte " + startOffset);
+      channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+      size = channel.size();
+      map(Math.min(startOffset, size));
+      ByteBuffer magic = ByteBuffer.allocate(2);
+      if (channel.read(magic, 0) == 2 && (magic.getShort(0) & 0xffff) == 0x1f8b) {
+        channel.close();
+        throw new IOException("Resuming needs an uncompressed dump, not gzip");
+      }
+    }
+
+    public boolean hasNext() {
+      if (next == null && remainingPages > 0) {
+        try {
+          next = readPage();
+        } catch (Exception e) {
+          throw new RuntimeException("Failed to parse the page at byte " + offset, e);
+        }
+      }
+      if (next == null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      return next != null;
+    }
+
+    public Page next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      Page page = next;
+      next = null;
+      offset = nextEnd;
+      --remainingPages;
+      return page;
+    }
+
+    private Page readPage() throws Exception {
+      while (true) {
+        int from = (int) (offset - windowStart);
+        int start = indexOf(PAGE_OPEN, from, true);
+        int end = start < 0 ? -1 : indexOf(PAGE_CLOSE, start, false);
+        if (end >= 0) {
+          end += PAGE_CLOSE.length;
+          nextEnd = windowStart + end;
+          InputStream in = new SequenceInputStream(Collections.enumeration(List.of(
+                  new ByteArrayInputStream(ROOT_OPEN),
+                  new ShardedPages.ByteBufferInputStream(window.slice(start, end - start)),
+                  new ByteArrayInputStream(ROOT_CLOSE))));
+          XMLEventReader reader = factory.createXMLEventReader(in, "UTF-8");
+          return Pages.readPage(reader);
+        }
+        // The page runs past this window: remap from its start, unless this already is the end of the file
+        long pageStart = start < 0 ? windowStart + Math.max(from, window.limit() - PAGE_OPEN.length) : windowStart + start;
+        if (windowStart + window.limit() >= size)
+          return null;
+        if (pageStart == windowStart)
+          throw new IOException("Page at byte " + pageStart + " is larger than " + WINDOW + " bytes");
+        map(pageStart);
+        if (start < 0)
+          offset = Math.max(offset, pageStart); // nothing but whitespace or closing tags before it
+      }
+    }
+
+    private void map(long from) throws IOException {
+      windowStart = from;
+      window = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(WINDOW, size - from));
+    }
+
+    // With tagEnd the match must be followed by '>' or whitespace, so <pages> or <pageid> do not count
+    private int indexOf(byte[] pattern, int from, boolean tagEnd) {
+      int limit = window.limit() - pattern.length - (tagEnd ? 1 : 0);
+      for (int i = from; i <= limit; i++) {
+        int j = 0;
+        while (j < pattern.length && window.get(i + j) == pattern[j])
+          j++;
+        if (j == pattern.length) {
+          if (!tagEnd)
+            return i;
+          byte after = window.get(i + j);
+          if (after == '>' || after == ' ' || after == '\n' || after == '\t' || after == '\r')
+            return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  public Iterator<Page> iterator() {
+    try {
+      return new PageIterator();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*  Hands byte shards of the dump to worker processes over TCP and merges the partial
+    counts they send back.
+
+    Each connected worker gets one shard at a time. A partial is read in full before it is
+    merged, and a shard is merged only once, so a worker that dies halfway through sending
+    leaves no trace in the totals. A worker that disconnects or stays silent longer than
+    the timeout gives its shard back to the front of the queue for the next idle worker.
+    Local workers started with spawnLocalWorkers() are replaced when one dies. A shard
+    that has failed MAX_ATTEMPTS times is taken to crash workers and fails the whole run.
+*/
+public class ShardCoordinator {
+
+    static final int MAGIC = 0x57435752; // "WCWR"
+    static final int ASSIGN = 1;
+    static final int DONE = 0;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final String fileName;
+    private final long[] bounds;
+    private final ServerSocket server;
+    private final int timeoutMillis;
+    private final Deque<Integer> pending = new ArrayDeque<>();
+    private final int[] attempts;
+    private final boolean[] done;
+    private int remaining;
+    private IOException failure;
+    private final WordCounter totals = new WordCounter();
+    private long pages;
+    private long mergeNanos;
+    private final List<Process> processes = new ArrayList<>();
+    private List<String> workerCommand;
+
+    public ShardCoordinator(String fileName, int shards, int port, int timeoutSeconds) throws IOException {
+        this.fileName = fileName;
+        this.bounds = ShardedPages.split(fileName, shards);
+        this.server = new ServerSocket(port);
+        this.timeoutMillis = (int) TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        int count = Math.max(0, bounds.length - 1);
+        this.attempts = new int[count];
+        this.done = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            if (bounds[i] < bounds[i + 1]) {
+                pending.add(i);
+            } else {
+                done[i] = true;
+            }
+        }
+        this.remaining = pending.size();
+        System.out.println("Coordinator listening on port " + server.getLocalPort() + ", " + remaining + " shards of " + fileName);
+    }
+
+    public int port() { return server.getLocalPort(); }
+
+    /* Starts count worker JVMs on this machine with the same classpath, running mainClass with workerArgs. */
+    public synchronized void spawnLocalWorkers(int count, String mainClass, List<String> workerArgs) throws IOException {
+        workerCommand = new ArrayList<>();
+        workerCommand.add(ProcessHandle.current().info().command().orElse("java"));
+        workerCommand.add("-cp");
+        workerCommand.add(System.getProperty("java.class.path"));
+        workerCommand.add(mainClass);
+        workerCommand.add("--connect");
+        workerCommand.add("localhost:" + port());
+        workerCommand.addAll(workerArgs);
+        for (int i = 0; i < count; i++) {
+            spawn();
+        }
+    }
+
+    /* Serves workers until every shard is merged; returns the merged counts. */
+    public WordCounter run() throws IOException {
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread handler = new Thread(() -> serve(socket), "worker " + socket.getRemoteSocketAddress());
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    // closed once all shards are merged
+                }
+            }
+        }, "accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        try {
+            synchronized (this) {
+                while (remaining > 0 && failure == null) {
+                    wait();
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for workers", e);
+        } finally {
+            server.close();
+            stopWorkers();
+        }
+        return totals;
+    }
+
+    public synchronized long pages() { return pages; }
+
+    /* Time spent merging partials into the totals. */
+    public synchronized long mergeNanos() { return mergeNanos; }
+
+    private void serve(Socket socket) {
+        String worker = String.valueOf(socket.getRemoteSocketAddress());
+        int shard = -1;
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setSoTimeout(timeoutMillis);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a word count worker");
+            }
+            while ((shard = nextShard()) >= 0) {
+                out.writeByte(ASSIGN);
+                out.writeInt(shard);
+                out.writeUTF(fileName);
+                out.writeLong(bounds[shard]);
+                out.writeLong(bounds[shard + 1]);
+                out.flush();
+                if (in.readInt() != shard) {
+                    throw new IOException("Worker answered for another shard");
+                }
+                int shardPages = in.readInt();
+                WordCounter partial = PartialCounts.read(in);
+                complete(shard, shardPages, partial);
+                shard = -1;
+            }
+            out.writeByte(DONE);
+            out.flush();
+        } catch (IOException e) {
+            if (shard >= 0) {
+                fail(shard, worker, e);
+            }
+        }
+    }
+
+    // Next shard to hand out, waiting while others are still in progress; -1 once all are merged
+    private synchronized int nextShard() {
+        while (pending.isEmpty() && remaining > 0 && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+        return pending.isEmpty() ? -1 : pending.poll();
+    }
+
+    private synchronized void complete(int shard, int shardPages, WordCounter partial) {
+        if (done[shard]) {
+            return;
+        }
+        long start = System.nanoTime();
+        totals.addAll(partial);
+        mergeNanos += System.nanoTime() - start;
+        pages += shardPages;
+        done[shard] = true;
+        remaining--;
+        notifyAll();
+    }
+
+    private synchronized void fail(int shard, String worker, IOException cause) {
+        if (done[shard]) {
+            return;
+        }
+        System.out.println("Worker " + worker + " lost on shard " + shard + " (" + cause + "), reassigning");
+        if (++attempts[shard] >= MAX_ATTEMPTS) {
+            failure = new IOException("Shard " + shard + " [" + bounds[shard] + ", " + bounds[shard + 1]
+                    + ") failed on " + MAX_ATTEMPTS + " workers", cause);
+        } else {
+            pending.addFirst(shard);
+            if (workerCommand != null) {
+                try {
+                    spawn();
+                } catch (IOException e) {
+                    System.out.println("Could not start a replacement worker: " + e.getMessage());
+                }
+            }
+        }
+        notifyAll();
+    }
+
+    private void spawn() throws IOException {
+        processes.removeIf(process -> !process.isAlive());
+        processes.add(new ProcessBuilder(workerCommand).inheritIO().start());
+    }
+
+    private synchronized void stopWorkers() {
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroy();
+                }
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/*  Worker side of ShardCoordinator: connects, counts every byte shard it is assigned with
+    one of the engines' counting cores and sends the partial counts back, until the
+    coordinator says it is done. The dump path comes with each assignment, so workers on
+    other machines need the dump at the same path.
+
+    Engines: "sequential" (one tokenizer into one WordCounter), "forkjoin"
+    (WordCountRecursiveTask on a pool of `threads`) and "threadpool" (batches of pages on a
+    fixed pool into MapReduce local counts).
+*/
+public class ShardWorker {
+
+    public static final String SEQUENTIAL = "sequential";
+    public static final String FORK_JOIN = "forkjoin";
+    public static final String THREAD_POOL = "threadpool";
+    private static final int BATCH_SIZE = 100;
+
+    private final String engine;
+    private final int threads;
+    private final boolean compatWords;
+
+    public ShardWorker(String engine, int threads, boolean compatWords) {
+        if (!engine.equals(SEQUENTIAL) && !engine.equals(FORK_JOIN) && !engine.equals(THREAD_POOL)) {
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+        this.engine = engine;
+        this.threads = Math.max(1, threads);
+        this.compatWords = compatWords;
+    }
+
+    public void run(String host, int port) throws IOException {
+        try (Socket socket = new Socket(host, port);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            out.writeInt(ShardCoordinator.MAGIC);
+            out.flush();
+            while (in.readByte() == ShardCoordinator.ASSIGN) {
+                int shard = in.readInt();
+                String fileName = in.readUTF();
+                long start = in.readLong();
+                long end = in.readLong();
+                long startNanos = System.nanoTime();
+                int[] pageCount = {0};
+                WordCounter counts = count(ShardedPages.range(fileName, start, end), pageCount);
+                out.writeInt(shard);
+                out.writeInt(pageCount[0]);
+                PartialCounts.write(counts, out);
+                out.flush();
+                System.out.println("Worker " + ProcessHandle.current().pid() + ": shard " + shard + ", " + pageCount[0]
+                        + " pages, " + counts.size() + " words in " + (System.nanoTime() - startNanos) / 1_000_000 + "ms");
+            }
+        }
+    }
+
+    private WordCounter count(Iterable<Page> pages, int[] pageCount) throws IOException {
+        switch (engine) {
+            case FORK_JOIN: {
+                List<Page> list = new ArrayList<>();
+                for (Page page : pages) {
+                    list.add(page);
+                }
+                pageCount[0] = list.size();
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    return pool.invoke(new WordCountRecursiveTask(list, compatWords));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            case THREAD_POOL: {
+                MapReduce mapReduce = new MapReduce(compatWords, true);
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                List<Page> batch = new ArrayList<>(BATCH_SIZE);
+                for (Page page : pages) {
+                    batch.add(page);
+                    pageCount[0]++;
+                    if (batch.size() == BATCH_SIZE) {
+                        submit(executor, mapReduce, batch);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                submit(executor, mapReduce, batch);
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(1, TimeUnit.HOURS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while counting", e);
+                }
+                WordCounter counts = new WordCounter(mapReduce.getCounts().size());
+                mapReduce.getCounts().forEach(counts::add);
+                return counts;
+            }
+            default: {
+                WordCounter counts = new WordCounter();
+                Tokenizer tokenizer = new Tokenizer(compatWords);
+                for (Page page : pages) {
+                    tokenizer.forEachWord(page, counts::add);
+                    pageCount[0]++;
+                }
+                return counts;
+            }
+        }
+    }
+
+    private static void submit(ExecutorService executor, MapReduce mapReduce, List<Page> batch) {
+        executor.execute(() -> {
+            for (Page page : batch) {
+                mapReduce.map(page);
+            }
+        });
+    }
+}
@@ -0,0 +1,337 @@
+package common;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+
+/*  Splits the dump into byte ranges that start on a <page> tag and parses each range
+    with its own XMLEventReader over a memory-mapped view of the file.
+    Each range is wrapped in a synthetic root element so StAX sees a well-formed document.
+*/
+public class ShardedPages implements Iterable<Page> {
+
+  private static final byte[] PAGE_OPEN = "<page".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PAGE_CLOSE = "</page>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SHARD_OPEN = "<shard>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SHARD_CLOSE = "</shard>".getBytes(StandardCharsets.US_ASCII);
+  private static final long MAX_RANGE = 1L << 30; // a single MappedByteBuffer is limited to 2GB
+  private static final int SCAN_CHUNK = 1 << 16;
+  private static final int QUEUE_CAPACITY = 500;
+  private static final Page END = new Page("", "");
+
+  private final int maxPages;
+  private final String fileName;
+  private final int numShards;
+
+  public ShardedPages(int maxPages, String fileName, int numShards) {
+    this.maxPages = maxPages;
+    this.fileName = fileName;
+    this.numShards = Math.max(1, numShards);
+  }
+
+  /*  One iterable per byte range. The ranges only cover the first maxPages pages of the dump,
+      so together they yield the same pages as Pages, whichever shard gets ahead.
+  */
+  public List<Iterable<Page>> shards() {
+    System.out.println("Max pages: " + maxPages + ", shards: " + numShards);
+    try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+      long[] bounds = split(channel, numShards, maxPages);
+      List<Iterable<Page>> shards = new ArrayList<>();
+      for (int i = 0; i + 1 < bounds.length; i++) {
+        if (bounds[i] < bounds[i + 1]) {
+          MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+          shards.add(() -> new ShardIterator(buffer));
+        }
+      }
+      return Collections.unmodifiableList(shards);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /*  Parses every shard on its own thread and hands the pages over in arrival order.
+      A shard that fails to parse ends with a Failure instead of END, which hasNext() rethrows
+      rather than returning a count that silently misses the rest of that shard.
+  */
+  public Iterator<Page> iterator() {
+    List<Iterable<Page>> shards = shards();
+    BlockingQueue<Page> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    for (Iterable<Page> shard : shards) {
+      Thread parser = new Thread(() -> {
+        Page last = END;
+        try {
+          for (Page page : shard)
+            queue.put(page);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+          last = new Failure(e);
+        } finally {
+          putUninterruptibly(queue, last);
+        }
+      });
+      parser.setDaemon(true);
+      parser.start();
+    }
+
+    return new Iterator<Page>() {
+      private int running = shards.size();
+      private Page next;
+
+      public boolean hasNext() {
+        while (next == null && running > 0) {
+          try {
+            Page page = queue.take();
+            if (page instanceof Failure failure) {
+              running = 0;
+              throw failure.error;
+            } else if (page == END)
+              --running;
+            else
+              next = page;
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = 0;
+          }
+        }
+        return next != null;
+      }
+
+      public Page next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        Page page = next;
+        next = null;
+        return page;
+      }
+    };
+  }
+
+  /* split() for callers outside the package, e.g. to hand byte ranges to other processes. */
+  public static long[] split(String fileName, int numShards) {
+    try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+      return split(channel, numShards);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /* The pages of the byte range [start, end) of the dump, as returned by split(). */
+  public static Iterable<Page> range(String fileName, long start, long end) {
+    try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      return () -> new ShardIterator(buffer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static long[] split(FileChannel channel, int numShards) throws IOException {
+    return split(channel, numShards, Integer.MAX_VALUE);
+  }
+
+  /*  Offsets [b0, b1, ..., bn] of n >= numShards ranges of at most 1GB, each starting on a <page> tag,
+      that end with the first maxPages pages.
+  */
+  static long[] split(FileChannel channel, int numShards, int maxPages) throws IOException {
+    if (channel.size() >= 2 && readShort(channel) == 0x1f8b)
+      throw new IOException("Byte ranges need an uncompressed dump, not gzip");
+    long size = channel.size();
+    long first = indexOf(channel, PAGE_OPEN, 0, size);
+    if (first < 0)
+      return new long[0];
+    long last = lastIndexOf(channel, PAGE_CLOSE, size);
+    long end = last < 0 ? size : last + PAGE_CLOSE.length;
+    if (maxPages < Integer.MAX_VALUE)
+      end = endOfPages(channel, first, end, maxPages);
+
+    int ranges = (int) Math.max(numShards, (end - first + MAX_RANGE - 1) / MAX_RANGE);
+    long[] bounds = new long[ranges + 1];
+    bounds[0] = first;
+    bounds[ranges] = end;
+    for (int i = 1; i < ranges; i++) {
+      long nominal = first + (end - first) * i / ranges;
+      long start = indexOf(channel, PAGE_OPEN, Math.max(nominal, bounds[i - 1]), end);
+      bounds[i] = start < 0 ? end : start;
+    }
+    return bounds;
+  }
+
+  /* Position of the first "<page" followed by '>' or whitespace at or after from. */
+  private static long indexOf(FileChannel channel, byte[] pattern, long from, long limit) throws IOException {
+    ByteBuffer chunk = ByteBuffer.allocate(SCAN_CHUNK);
+    for (long pos = from; pos < limit; pos += SCAN_CHUNK - pattern.length) {
+      chunk.clear();
+      int n = channel.read(chunk, pos);
+      if (n <= 0)
+        break;
+      for (int i = 0; i + pattern.length < n; i++) {
+        if (matches(chunk, i, pattern)) {
+          byte after = chunk.get(i + pattern.length);
+          if (after == '>' || after == ' ' || after == '\n' || after == '\t' || after == '\r')
+            return pos + i < limit ? pos + i : -1;
+        }
+      }
+      if (n < SCAN_CHUNK)
+        break;
+    }
+    return -1;
+  }
+
+  /* Where the page after the first maxPages pages from from starts, or end if there are no more. */
+  private static long endOfPages(FileChannel channel, long from, long end, int maxPages) throws IOException {
+    ByteBuffer chunk = ByteBuffer.allocate(SCAN_CHUNK);
+    int seen = 0;
+    for (long pos = from; pos < end; pos += SCAN_CHUNK - PAGE_OPEN.length) {
+      chunk.clear();
+      int n = channel.read(chunk, pos);
+      if (n <= 0)
+        break;
+      for (int i = 0; i + PAGE_OPEN.length < n && pos + i < end; i++) {
+        if (matches(chunk, i, PAGE_OPEN)) {
+          byte after = chunk.get(i + PAGE_OPEN.length);
+          if ((after == '>' || after == ' ' || after == '\n' || after == '\t' || after == '\r') && ++seen > maxPages)
+            return pos + i;
+        }
+      }
+      if (n < SCAN_CHUNK)
+        break;
+    }
+    return end;
+  }
+
+  private static long lastIndexOf(FileChannel channel, byte[] pattern, long size) throws IOException {
+    ByteBuffer chunk = ByteBuffer.allocate(SCAN_CHUNK);
+    for (long end = size; end > 0; end -= SCAN_CHUNK - pattern.length) {
+      long pos = Math.max(0, end - SCAN_CHUNK);
+      chunk.clear();
+      chunk.limit((int) (end - pos));
+      int n = channel.read(chunk, pos);
+      for (int i = n - pattern.length; i >= 0; i--) {
+        if (matches(chunk, i, pattern))
+          return pos + i;
+      }
+      if (pos == 0)
+        break;
+    }
+    return -1;
+  }
+
+  private static int readShort(FileChannel channel) throws IOException {
+    ByteBuffer magic = ByteBuffer.allocate(2);
+    channel.read(magic, 0);
+    return magic.getShort(0) & 0xffff;
+  }
+
+  private static boolean matches(ByteBuffer buffer, int at, byte[] pattern) {
+    for (int j = 0; j < pattern.length; j++) {
+      if (buffer.get(at + j) != pattern[j])
+        return false;
+    }
+    return true;
+  }
+
+  private static void putUninterruptibly(BlockingQueue<Page> queue, Page page) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        queue.put(page);
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  // Takes the place of END for a shard whose parser threw
+  private static class Failure extends Page {
+
+    final RuntimeException error;
+
+    Failure(RuntimeException error) {
+      super("", "");
+      this.error = error;
+    }
+  }
+
+  private static class ShardIterator implements Iterator<Page> {
+
+    private final XMLEventReader reader;
+    private Page next;
+    private boolean done;
+
+    ShardIterator(ByteBuffer range) {
+      InputStream in = new SequenceInputStream(Collections.enumeration(List.of(
+              new ByteArrayInputStream(SHARD_OPEN),
+              new ByteBufferInputStream(range.duplicate()),
+              new ByteArrayInputStream(SHARD_CLOSE))));
+      try {
+        reader = XMLInputFactory.newInstance().createXMLEventReader(in, "UTF-8");
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public boolean hasNext() {
+      if (next == null && !done) {
+        try {
+          next = Pages.readPage(reader);
+        } catch (Exception e) {
+          done = true;
+          throw new RuntimeException("Failed to parse a shard", e);
+        }
+        if (next == null)
+          done = true;
+      }
+      return next != null;
+    }
+
+    public Page next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      Page page = next;
+      next = null;
+      return page;
+    }
+  }
+
+  static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) { this.buffer = buffer; }
+
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    public int read(byte[] b, int off, int len) {
+      if (!buffer.hasRemaining())
+        return -1;
+      int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    public int available() { return buffer.remaining(); }
+  }
+}
@@ -0,0 +1,217 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/*  Word counting under a heap budget: a counter that reaches maxWords() is written to a
+    sorted run file (PartialCounts format) and cleared, and top() combines all runs with a
+    streaming k-way merge, keeping only the top-K words in memory while it goes.
+
+    The budget is turned into a number of words per counter with BYTES_PER_WORD (the
+    WordCounter slot plus a short key String, measured at roughly 80 bytes) and split
+    evenly between the counters that fill at the same time. Safe to share between
+    threads; each thread spills its own counters. A merge reads at most FAN_IN runs at a
+    time through 64KB buffers; with more runs, the oldest are first merged into bigger runs.
+*/
+public class SpillingCounts {
+
+    private static final int BYTES_PER_WORD = 80;
+    private static final int BUFFER = 1 << 16;
+    private static final int FAN_IN = 64;
+    private static final Comparator<Run> BY_WORD = (a, b) -> Arrays.compareUnsigned(a.reader.word(), b.reader.word());
+
+    private final int maxWords;
+    private final Path directory;
+    private final List<Path> runs = new ArrayList<>();
+    private long spilledWords;
+    private long spilledBytes;
+
+    /* counters: how many counters fill at the same time (one per worker thread). */
+    public SpillingCounts(long budgetBytes, int counters, String directory) {
+        this.maxWords = (int) Math.max(1024, Math.min(Integer.MAX_VALUE, budgetBytes / BYTES_PER_WORD / Math.max(1, counters)));
+        this.directory = Path.of(directory != null ? directory : System.getProperty("java.io.tmpdir"));
+    }
+
+    public int maxWords() { return maxWords; }
+
+    public void spillIfFull(WordCounter counter) {
+        if (counter.size() >= maxWords) {
+            spill(counter);
+        }
+    }
+
+    /* Writes counter as a new sorted run and clears it. */
+    public void spill(WordCounter counter) {
+        if (counter.size() == 0) {
+            return;
+        }
+        try {
+            Path run = Files.createTempFile(directory, "wordcount-", ".run");
+            run.toFile().deleteOnExit();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER))) {
+                PartialCounts.write(counter, out);
+            }
+            synchronized (this) {
+                runs.add(run);
+                spilledWords += counter.size();
+                spilledBytes += Files.size(run);
+            }
+            counter.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*  Merges every run into the k most frequent words, ties broken alphabetically (by UTF-8
+        bytes), and deletes the runs. Call once all counters have been spilled.
+    */
+    public synchronized List<Map.Entry<String, Long>> top(int k) {
+        Comparator<Map.Entry<byte[], Long>> ascending = Map.Entry.<byte[], Long>comparingByValue()
+                .thenComparing((a, b) -> Arrays.compareUnsigned(b.getKey(), a.getKey()));
+        PriorityQueue<Map.Entry<byte[], Long>> heap = new PriorityQueue<>(Math.max(1, k), ascending);
+        int spilledRuns = runs.size();
+        int passes = 0;
+        long distinct;
+        try {
+            // Earliest runs first, so every word is merged about log_FAN_IN(runs) times
+            while (runs.size() > FAN_IN) {
+                List<Path> group = new ArrayList<>(runs.subList(0, FAN_IN));
+                runs.subList(0, FAN_IN).clear();
+                runs.add(mergeRuns(group));
+                passes++;
+            }
+            distinct = merge(runs, (word, count) -> {
+                Map.Entry<byte[], Long> entry = Map.entry(word, count);
+                if (heap.size() < k) {
+                    heap.add(entry);
+                } else if (k > 0 && ascending.compare(entry, heap.peek()) > 0) {
+                    heap.poll();
+                    heap.add(entry);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deleteRuns(runs);
+            runs.clear();
+        }
+        System.out.println("Spilled " + spilledWords + " words (" + spilledBytes + " bytes) in " + spilledRuns
+                + " runs, " + passes + " intermediate merges, " + distinct + " distinct words");
+
+        List<Map.Entry<byte[], Long>> winners = new ArrayList<>(heap);
+        winners.sort(ascending.reversed());
+        List<Map.Entry<String, Long>> result = new ArrayList<>(winners.size());
+        for (Map.Entry<byte[], Long> winner : winners) {
+            result.add(Map.entry(new String(winner.getKey(), StandardCharsets.UTF_8), winner.getValue()));
+        }
+        return result;
+    }
+
+    // Merges group into one new run; the word count is patched in at the start once known
+    private Path mergeRuns(List<Path> group) throws IOException {
+        Path merged = Files.createTempFile(directory, "wordcount-", ".run");
+        merged.toFile().deleteOnExit();
+        try (FileChannel channel = FileChannel.open(merged, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER));
+            out.write(new byte[PartialCounts.PADDED_SIZE]);
+            PartialCounts.Writer writer = new PartialCounts.Writer(out);
+            long words = merge(group, (word, count) -> {
+                try {
+                    writer.add(word, Math.toIntExact(count));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+            channel.write(ByteBuffer.wrap(PartialCounts.paddedSize(Math.toIntExact(words))), 0);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            deleteRuns(group);
+        }
+        return merged;
+    }
+
+    // k-way merge of sorted runs, calling sink once per distinct word in order; returns how many
+    private static long merge(List<Path> paths, MergeSink sink) throws IOException {
+        PriorityQueue<Run> merge = new PriorityQueue<>(Math.max(1, paths.size()), BY_WORD);
+        long distinct = 0;
+        try {
+            for (Path path : paths) {
+                Run run = new Run(path);
+                advance(run, merge);
+            }
+            while (!merge.isEmpty()) {
+                Run first = merge.poll();
+                byte[] word = first.reader.word();
+                long count = first.reader.count();
+                advance(first, merge);
+                while (!merge.isEmpty() && Arrays.equals(merge.peek().reader.word(), word)) {
+                    Run same = merge.poll();
+                    count += same.reader.count();
+                    advance(same, merge);
+                }
+                distinct++;
+                sink.accept(word, count);
+            }
+        } finally {
+            for (Run run : merge) {
+                try {
+                    run.in.close();
+                } catch (IOException e) {
+                    // already failing
+                }
+            }
+        }
+        return distinct;
+    }
+
+    private static void advance(Run run, PriorityQueue<Run> merge) throws IOException {
+        if (run.reader.next()) {
+            merge.add(run);
+        } else {
+            run.in.close();
+        }
+    }
+
+    private interface MergeSink {
+        void accept(byte[] word, long count);
+    }
+
+    private static void deleteRuns(List<Path> paths) {
+        for (Path run : paths) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                // left for deleteOnExit
+            }
+        }
+    }
+
+    private static class Run {
+        final DataInputStream in;
+        final PartialCounts.Reader reader;
+
+        Run(Path path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER));
+            reader = new PartialCounts.Reader(in);
+        }
+    }
+}
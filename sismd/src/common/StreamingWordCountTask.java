@@ -0,0 +1,75 @@
+package common;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/*  Pulls batches from a PageSpliterator and forks a WordCountRecursiveTask for each one
+    while parsing continues. At most maxInFlight batches are alive at a time: once the
+    limit is reached the oldest batch is joined and merged before more pages are read.
+*/
+public class StreamingWordCountTask extends RecursiveTask<WordCounter> {
+    private final PageSpliterator pages;
+    private final int maxInFlight;
+    private final boolean compatibleWords;
+    private final HeavyHitters heavyHitters;
+    private final NGramMapReduce ngrams;
+    private final int leafSize;
+    private int pageCount;
+
+    public StreamingWordCountTask(PageSpliterator pages, int maxInFlight, boolean compatibleWords) {
+        this(pages, maxInFlight, compatibleWords, null);
+    }
+
+    public StreamingWordCountTask(PageSpliterator pages, int maxInFlight, boolean compatibleWords, HeavyHitters heavyHitters) {
+        this(pages, maxInFlight, compatibleWords, heavyHitters, WordCountRecursiveTask.DEFAULT_THRESHOLD);
+    }
+
+    // leafSize: chars per leaf of the task forked for each batch
+    public StreamingWordCountTask(PageSpliterator pages, int maxInFlight, boolean compatibleWords, HeavyHitters heavyHitters,
+                                  int leafSize) {
+        this(pages, maxInFlight, compatibleWords, heavyHitters, null, leafSize);
+    }
+
+    // With ngrams set, the batches are counted as n-grams into it and the result stays empty
+    public StreamingWordCountTask(PageSpliterator pages, int maxInFlight, NGramMapReduce ngrams, int leafSize) {
+        this(pages, maxInFlight, false, null, ngrams, leafSize);
+    }
+
+    private StreamingWordCountTask(PageSpliterator pages, int maxInFlight, boolean compatibleWords, HeavyHitters heavyHitters,
+                                   NGramMapReduce ngrams, int leafSize) {
+        this.pages = pages;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.compatibleWords = compatibleWords;
+        this.heavyHitters = heavyHitters;
+        this.ngrams = ngrams;
+        this.leafSize = leafSize;
+    }
+
+    @Override
+    protected WordCounter compute() {
+        WordCounter result = new WordCounter();
+        Deque<WordCountRecursiveTask> inFlight = new ArrayDeque<>();
+        List<Page> batch;
+        while (!(batch = pages.nextBatch()).isEmpty()) {
+            pageCount += batch.size();
+            WordCountRecursiveTask task = ngrams != null
+                    ? new WordCountRecursiveTask(batch, ngrams, leafSize)
+                    : new WordCountRecursiveTask(batch, compatibleWords, heavyHitters, leafSize);
+            task.fork();
+            inFlight.addLast(task);
+            if (inFlight.size() >= maxInFlight) {
+                result.addAll(inFlight.removeFirst().join());
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            result.addAll(inFlight.removeFirst().join());
+        }
+        return result;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+}
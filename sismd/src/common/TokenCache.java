@@ -0,0 +1,331 @@
+package common;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/*  The dump parsed and tokenized once: a dictionary of every distinct word and, per page,
+    the varint-encoded dictionary ids of its words in order. Reading pages back from the
+    memory-mapped cache skips StAX and the tokenizer entirely, so an engine run over the
+    cache measures the counting itself. Tokenizer.forEachWord(Page, ...) hands the words
+    of a CachedPage to the sink straight from the dictionary.
+
+    Layout (big-endian): a 64-byte header (magic, version, tokenizer mode, pages, words,
+    size and mtime of the dump, section offsets), the token stream, the page offsets as
+    long[pages + 1], the dictionary offsets as int[words + 1] and the dictionary chars.
+    The cache is rebuilt when the dump's size or mtime, or the tokenizer mode, changes.
+    Page titles are not kept.
+*/
+public class TokenCache {
+
+    private static final int MAGIC = 0x57544f4b; // "WTOK"
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final long WINDOW = 1L << 30;
+
+    private final String fileName;
+    private final long[] pageOffsets;
+    private final int[] wordOffsets;
+    private final char[] chars;
+
+    private TokenCache(String fileName, long[] pageOffsets, int[] wordOffsets, char[] chars) {
+        this.fileName = fileName;
+        this.pageOffsets = pageOffsets;
+        this.wordOffsets = wordOffsets;
+        this.chars = chars;
+    }
+
+    /* Opens cacheFile, building it from sourceFile first when it is missing or stale. */
+    public static TokenCache open(String cacheFile, String sourceFile, boolean compatWords) {
+        try {
+            if (!isCurrent(cacheFile, sourceFile, compatWords)) {
+                build(cacheFile, sourceFile, compatWords);
+            }
+            return load(cacheFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static TokenCache load(String cacheFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(cacheFile), StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel);
+            int pages = header.getInt(12);
+            int words = header.getInt(16);
+            long indexAt = header.getLong(40);
+            long dictionaryAt = header.getLong(48);
+            long charsAt = header.getLong(56);
+            long[] pageOffsets = new long[pages + 1];
+            channel.map(FileChannel.MapMode.READ_ONLY, indexAt, 8L * (pages + 1)).asLongBuffer().get(pageOffsets);
+            int[] wordOffsets = new int[words + 1];
+            channel.map(FileChannel.MapMode.READ_ONLY, dictionaryAt, 4L * (words + 1)).asIntBuffer().get(wordOffsets);
+            char[] chars = new char[wordOffsets[words]];
+            channel.map(FileChannel.MapMode.READ_ONLY, charsAt, 2L * chars.length).asCharBuffer().get(chars);
+            return new TokenCache(cacheFile, pageOffsets, wordOffsets, chars);
+        }
+    }
+
+    public int pageCount() { return pageOffsets.length - 1; }
+
+    public int wordCount() { return wordOffsets.length - 1; }
+
+    public Iterable<Page> pages(int maxPages) {
+        return () -> new CachedPageIterator(Math.min(maxPages, pageCount()));
+    }
+
+    private static boolean isCurrent(String cacheFile, String sourceFile, boolean compatWords) throws IOException {
+        if (!Files.isRegularFile(Path.of(cacheFile))) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(Path.of(cacheFile), StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel);
+            Path source = Path.of(sourceFile);
+            return header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                    && header.getInt(8) == (compatWords ? 1 : 0)
+                    && header.getLong(24) == Files.size(source)
+                    && header.getLong(32) == Files.getLastModifiedTime(source).toMillis();
+        }
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // fill the header
+        }
+        return header;
+    }
+
+    private static void build(String cacheFile, String sourceFile, boolean compatWords) throws IOException {
+        System.out.println("Building token cache " + cacheFile + " from " + sourceFile);
+        long start = System.currentTimeMillis();
+        Path source = Path.of(sourceFile);
+        long sourceSize = Files.size(source);
+        long sourceMtime = Files.getLastModifiedTime(source).toMillis();
+        Path target = Path.of(cacheFile);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Builder builder = new Builder(new BufferedOutputStream(Channels.newOutputStream(channel.position(HEADER)), 1 << 16));
+            Tokenizer tokenizer = new Tokenizer(compatWords);
+            for (Page page : new Pages(Integer.MAX_VALUE, sourceFile)) {
+                if (page == null)
+                    break;
+                builder.startPage();
+                tokenizer.forEachWord(page.getText(), builder);
+            }
+            long indexAt = builder.finishPages();
+            long dictionaryAt = builder.writeIndex();
+            long charsAt = builder.writeDictionary();
+            builder.out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(VERSION).putInt(compatWords ? 1 : 0).putInt(builder.pages)
+                    .putInt(builder.words.size()).putInt(0).putLong(sourceSize).putLong(sourceMtime)
+                    .putLong(indexAt).putLong(dictionaryAt).putLong(charsAt).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            System.out.println("Token cache: " + builder.pages + " pages, " + builder.words.size() + " words, "
+                    + channel.size() + " bytes in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Assigns ids in order of first appearance and writes each word as an unsigned LEB128 varint
+    private static class Builder implements Tokenizer.WordSink {
+
+        final OutputStream out;
+        final WordCounter ids = new WordCounter();
+        final List<String> words = new ArrayList<>();
+        long[] pageOffsets = new long[1024];
+        int pages;
+        long position = HEADER;
+
+        Builder(OutputStream out) {
+            this.out = out;
+        }
+
+        void startPage() {
+            if (pages + 1 == pageOffsets.length) {
+                pageOffsets = Arrays.copyOf(pageOffsets, pageOffsets.length * 2);
+            }
+            pageOffsets[pages++] = position;
+        }
+
+        public void accept(char[] chars, int offset, int length) {
+            int id = ids.putIfAbsent(chars, offset, length, words.size() + 1);
+            if (id == 0) {
+                words.add(new String(chars, offset, length));
+                id = words.size();
+            }
+            try {
+                for (int value = id - 1; ; value >>>= 7) {
+                    position++;
+                    if ((value & ~0x7f) == 0) {
+                        out.write(value);
+                        break;
+                    }
+                    out.write(value & 0x7f | 0x80);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        long finishPages() {
+            pageOffsets[pages] = position;
+            return position;
+        }
+
+        long writeIndex() throws IOException {
+            for (int i = 0; i <= pages; i++) {
+                writeLong(pageOffsets[i]);
+            }
+            return position;
+        }
+
+        long writeDictionary() throws IOException {
+            int offset = 0;
+            writeInt(offset);
+            for (String word : words) {
+                offset += word.length();
+                writeInt(offset);
+            }
+            long charsAt = position;
+            for (String word : words) {
+                for (int i = 0; i < word.length(); i++) {
+                    out.write(word.charAt(i) >>> 8);
+                    out.write(word.charAt(i));
+                }
+                position += 2L * word.length();
+            }
+            return charsAt;
+        }
+
+        private void writeInt(int value) throws IOException {
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+            position += 4;
+        }
+
+        private void writeLong(long value) throws IOException {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+    }
+
+    private class CachedPageIterator implements Iterator<Page> {
+
+        private final int limit;
+        private final FileChannel channel;
+        private ByteBuffer window;
+        private long windowStart;
+        private int page;
+
+        CachedPageIterator(int limit) {
+            this.limit = limit;
+            System.out.println("Max pages: " + limit + ", from token cache " + fileName);
+            try {
+                channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public boolean hasNext() {
+            if (page < limit) {
+                return true;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return false;
+        }
+
+        public Page next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            long start = pageOffsets[page];
+            long end = pageOffsets[page + 1];
+            page++;
+            try {
+                if (window == null || end > windowStart + window.limit()) {
+                    windowStart = start;
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(WINDOW, pageOffsets[pageOffsets.length - 1] - start));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new CachedPage(window.slice((int) (start - windowStart), (int) (end - start)));
+        }
+    }
+
+    /* A page as dictionary ids; getText() only rebuilds an approximation (words joined by spaces). */
+    public class CachedPage extends Page {
+
+        private final ByteBuffer tokens;
+
+        CachedPage(ByteBuffer tokens) {
+            super("", null);
+            this.tokens = tokens;
+        }
+
+        /* Returns how many words went to sink. */
+        public int forEachWord(Tokenizer.WordSink sink) {
+            int words = 0;
+            int i = 0;
+            int end = tokens.limit();
+            while (i < end) {
+                int id = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = tokens.get(i++);
+                    id |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                sink.accept(chars, wordOffsets[id], wordOffsets[id + 1] - wordOffsets[id]);
+                words++;
+            }
+            return words;
+        }
+
+        int tokenBytes() {
+            return tokens.limit();
+        }
+
+        @Override
+        public int getTextLength() {
+            int[] length = {0};
+            forEachWord((words, offset, count) -> length[0] += count + 1);
+            return length[0];
+        }
+
+        @Override
+        public String getText() {
+            StringBuilder text = new StringBuilder();
+            forEachWord((words, offset, length) -> text.append(words, offset, length).append(' '));
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package common;
+
+import java.text.BreakIterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*  Scans the characters of a text and hands every counted word to a WordSink as a
+    (chars, offset, length) range of a reusable buffer, so rejected tokens and the gaps
+    between words are never turned into Strings.
+
+    The default mode treats runs of letters and digits as words, joined by a single
+    '.', '\'', '-' between letters, '.', ',' between digits or '_' between any word
+    characters, which matches BreakIterator on regular prose. The compatible mode keeps
+    the exact BreakIterator segmentation used by Words, including whitespace runs.
+
+    Instances reuse their buffer and are not thread-safe. tokens() counts the words handed
+    out by every tokenizer in the JVM, added once per text so the word loop stays untouched.
+*/
+public class Tokenizer {
+
+    public interface WordSink {
+        void accept(char[] chars, int offset, int length);
+    }
+
+    private static final LongAdder TOKENS = new LongAdder();
+
+    private final boolean compatible;
+    private BreakIterator wordBoundary;
+    private char[] buffer = new char[1024];
+
+    public Tokenizer() {
+        this(false);
+    }
+
+    public Tokenizer(boolean compatible) {
+        this.compatible = compatible;
+    }
+
+    public void forEachWord(String text, WordSink sink) {
+        int length = text.length();
+        if (buffer.length < length) {
+            buffer = new char[Math.max(length, buffer.length * 2)];
+        }
+        text.getChars(0, length, buffer, 0);
+        TOKENS.add(compatible ? forEachSegment(text, sink) : forEachWord(buffer, 0, length, sink));
+    }
+
+    /* A page read from a TokenCache replays its stored words instead of being scanned again. */
+    public void forEachWord(Page page, WordSink sink) {
+        if (page instanceof TokenCache.CachedPage cached) {
+            TOKENS.add(cached.forEachWord(sink));
+        } else {
+            forEachWord(page.getText(), sink);
+        }
+    }
+
+    /* Returns how many words went to sink. */
+    public static int forEachWord(char[] chars, int offset, int length, WordSink sink) {
+        int words = 0;
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            while (i < end && !Character.isLetterOrDigit(chars[i])) {
+                i++;
+            }
+            if (i == end) {
+                break;
+            }
+            int start = i++;
+            while (i < end) {
+                char c = chars[i];
+                if (Character.isLetterOrDigit(c)) {
+                    i++;
+                } else if (i + 1 < end && joins(chars[i - 1], c, chars[i + 1])) {
+                    i += 2;
+                } else {
+                    break;
+                }
+            }
+            if (isCounted(chars, start, i - start)) {
+                sink.accept(chars, start, i - start);
+                words++;
+            }
+        }
+        return words;
+    }
+
+    /* Words tokenized so far by all tokenizers, the byte ones included. */
+    public static long tokens() {
+        return TOKENS.sum();
+    }
+
+    static void counted(int words) {
+        TOKENS.add(words);
+    }
+
+    /* The filter every engine applied to Words: more than one char, or "a" / "I". */
+    public static boolean isCounted(char[] chars, int offset, int length) {
+        return length > 1 || (length == 1 && (chars[offset] == 'a' || chars[offset] == 'I'));
+    }
+
+    private static boolean joins(char before, char c, char after) {
+        switch (c) {
+            case '_':
+                return Character.isLetterOrDigit(after);
+            case '.':
+                return (Character.isLetter(before) && Character.isLetter(after))
+                        || (Character.isDigit(before) && Character.isDigit(after));
+            case '\'':
+            case '-':
+                return Character.isLetter(before) && Character.isLetter(after);
+            case ',':
+                return Character.isDigit(before) && Character.isDigit(after);
+            default:
+                return false;
+        }
+    }
+
+    private int forEachSegment(String text, WordSink sink) {
+        int words = 0;
+        if (wordBoundary == null) {
+            wordBoundary = BreakIterator.getWordInstance();
+        }
+        wordBoundary.setText(text);
+        int start = wordBoundary.first();
+        for (int end = wordBoundary.next(); end != BreakIterator.DONE; start = end, end = wordBoundary.next()) {
+            if (isCounted(buffer, start, end - start)) {
+                sink.accept(buffer, start, end - start);
+                words++;
+            }
+        }
+        return words;
+    }
+}
@@ -0,0 +1,56 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/*  Exact top-K over final counts with a size-K min-heap instead of sorting the whole
+    vocabulary: O(n log K) time and O(K) extra memory. Ties are broken alphabetically so
+    the result does not depend on the iteration order of the source map.
+*/
+public class TopK {
+
+    private static final Comparator<Map.Entry<String, Integer>> ASCENDING =
+            Map.Entry.<String, Integer>comparingByValue()
+                    .thenComparing(Map.Entry.<String, Integer>comparingByKey().reversed());
+
+    private final int k;
+    private final PriorityQueue<Map.Entry<String, Integer>> heap;
+
+    private TopK(int k) {
+        this.k = k;
+        this.heap = new PriorityQueue<>(Math.max(1, k), ASCENDING);
+    }
+
+    public static List<Map.Entry<String, Integer>> of(WordCounter counts, int k) {
+        TopK top = new TopK(k);
+        counts.forEach(top::offer);
+        return top.descending();
+    }
+
+    public static List<Map.Entry<String, Integer>> of(Map<String, Integer> counts, int k) {
+        TopK top = new TopK(k);
+        counts.forEach(top::offer);
+        return top.descending();
+    }
+
+    private void offer(String word, int count) {
+        if (heap.size() < k) {
+            heap.add(Map.entry(word, count));
+            return;
+        }
+        Map.Entry<String, Integer> min = heap.peek();
+        if (min != null && (count > min.getValue() || (count == min.getValue() && word.compareTo(min.getKey()) < 0))) {
+            heap.poll();
+            heap.add(Map.entry(word, count));
+        }
+    }
+
+    private List<Map.Entry<String, Integer>> descending() {
+        List<Map.Entry<String, Integer>> result = new ArrayList<>(heap);
+        result.sort(ASCENDING.reversed());
+        return result;
+    }
+}
@@ -0,0 +1,64 @@
+package common;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*  The jdk.incubator.vector half of ByteScanner. Only ByteScanner refers to this class, and
+    only once it knows the module is present, so the class is never loaded without it.
+
+    Masks come back as longs, one bit per lane (bit 0 = first byte), which is why species
+    wider than 64 bytes are not supported.
+*/
+final class VectorByteScanner {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private VectorByteScanner() {
+    }
+
+    static boolean supported() {
+        return SPECIES.length() >= 16 && SPECIES.length() <= 64;
+    }
+
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    /*  masks[0]: ASCII letters and digits; masks[1]: '&' and non-ASCII bytes, for the
+        bytes[i, i + lanes()) block. Letters are (b | 0x20) - 'a' < 26 and digits
+        b - '0' < 10, both unsigned, which no byte >= 0x80 passes.
+    */
+    static void classify(byte[] bytes, int i, long[] masks) {
+        ByteVector v = ByteVector.fromArray(SPECIES, bytes, i);
+        VectorMask<Byte> letters = v.or((byte) 0x20).sub((byte) 'a').compare(VectorOperators.UNSIGNED_LT, (byte) 26);
+        VectorMask<Byte> digits = v.sub((byte) '0').compare(VectorOperators.UNSIGNED_LT, (byte) 10);
+        VectorMask<Byte> stops = v.compare(VectorOperators.LT, (byte) 0).or(v.eq((byte) '&'));
+        masks[0] = letters.or(digits).toLong();
+        masks[1] = stops.toLong();
+    }
+
+    /*  First occurrence of pattern, matching its first and last bytes a vector at a time
+        and checking the rest only where both hit. Returns -1 if there is none, or the
+        index at which the scalar loop has to take over for the last partial block.
+    */
+    static int indexOf(byte[] bytes, byte[] pattern, int from, int to) {
+        int last = pattern.length - 1;
+        byte head = pattern[0];
+        byte tail = pattern[last];
+        int i = from;
+        for (; i + last + SPECIES.length() <= to; i += SPECIES.length()) {
+            VectorMask<Byte> heads = ByteVector.fromArray(SPECIES, bytes, i).eq(head);
+            long hits = heads.and(ByteVector.fromArray(SPECIES, bytes, i + last).eq(tail)).toLong();
+            while (hits != 0) {
+                int at = i + Long.numberOfTrailingZeros(hits);
+                if (ByteScanner.matches(bytes, at, pattern)) {
+                    return at;
+                }
+                hits &= hits - 1;
+            }
+        }
+        return i + last < to ? i : -1;
+    }
+}
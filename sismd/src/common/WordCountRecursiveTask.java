@@ -1,6 +1,8 @@
-package common;/*  Divide a lista de Page em duas metades até o número ser inferior ao THRESHOLD.
+package common;/*  Divide a lista de Page em duas partes com o mesmo tamanho de texto até cada parte ter
+    no máximo threshold caracteres (ou uma só página), para que uma folha com poucos
+    artigos enormes não fique com muito mais trabalho do que as outras.
     Conta as palavras em paralelo.
-    Junta os resultados de cada sublista num único Map<String, Integer>.
+    Junta os resultados de cada sublista num único WordCounter.
 
 */
 
@@ -8,46 +10,114 @@ import java.util.*;
 import java.util.concurrent.RecursiveTask;
 
 
-public class WordCountRecursiveTask extends RecursiveTask<Map<String, Integer>> {
+public class WordCountRecursiveTask extends RecursiveTask<WordCounter> {
     private final List<Page> pages;
-    private static final int THRESHOLD = 100;
+    private final long[] ends; // ends[i]: text length of pages 0..i, shared by every task of the tree
+    private final int from;
+    private final int to;
+    private final boolean compatibleWords;
+    private final HeavyHitters heavyHitters;
+    private final NGramMapReduce ngrams;
+    private final int threshold;
+    public static final int DEFAULT_THRESHOLD = 1 << 18; // chars per leaf
 
     public WordCountRecursiveTask(List<Page> pages) {
+        this(pages, false);
+    }
+
+    public WordCountRecursiveTask(List<Page> pages, boolean compatibleWords) {
+        this(pages, compatibleWords, null);
+    }
+
+    // With heavyHitters set, each leaf counts into a counter borrowed from it and returns an empty counter; flush() it after
+    public WordCountRecursiveTask(List<Page> pages, boolean compatibleWords, HeavyHitters heavyHitters) {
+        this(pages, compatibleWords, heavyHitters, DEFAULT_THRESHOLD);
+    }
+
+    // Runs of pages with at most threshold chars of text in total are counted directly instead of being split further
+    public WordCountRecursiveTask(List<Page> pages, boolean compatibleWords, HeavyHitters heavyHitters, int threshold) {
+        this(pages, textEnds(pages), 0, pages.size(), compatibleWords, heavyHitters, null, threshold);
+    }
+
+    // With ngrams set, leaves hand their pages to it (it keeps per-worker counters) and return empty counters
+    public WordCountRecursiveTask(List<Page> pages, NGramMapReduce ngrams, int threshold) {
+        this(pages, textEnds(pages), 0, pages.size(), false, null, ngrams, threshold);
+    }
+
+    private WordCountRecursiveTask(List<Page> pages, long[] ends, int from, int to, boolean compatibleWords,
+                                   HeavyHitters heavyHitters, NGramMapReduce ngrams, int threshold) {
         this.pages = pages;
+        this.ends = ends;
+        this.from = from;
+        this.to = to;
+        this.compatibleWords = compatibleWords;
+        this.heavyHitters = heavyHitters;
+        this.ngrams = ngrams;
+        this.threshold = Math.max(1, threshold);
     }
 
     @Override
-    protected Map<String, Integer> compute() {
-        if (pages.size() <= THRESHOLD) {
-            return countWords(pages);
+    protected WordCounter compute() {
+        if (to - from <= 1 || length(from, to) <= threshold) {
+            return countWords(pages.subList(from, to));
         } else {
-            int mid = pages.size() / 2;
-            WordCountRecursiveTask left = new WordCountRecursiveTask(pages.subList(0, mid));
-            WordCountRecursiveTask right = new WordCountRecursiveTask(pages.subList(mid, pages.size()));
+            int mid = middle();
+            WordCountRecursiveTask left = new WordCountRecursiveTask(pages, ends, from, mid, compatibleWords, heavyHitters, ngrams, threshold);
+            WordCountRecursiveTask right = new WordCountRecursiveTask(pages, ends, mid, to, compatibleWords, heavyHitters, ngrams, threshold);
             left.fork();
-            Map<String, Integer> rightResult = right.compute();
-            Map<String, Integer> leftResult = left.join();
+            WordCounter rightResult = right.compute();
+            WordCounter leftResult = left.join();
             return merge(leftResult, rightResult);
         }
     }
 
-    private Map<String, Integer> countWords(List<Page> pages) {
-        Map<String, Integer> wordCount = new HashMap<>();
-        for (Page page : pages) {
-            Iterable<String> words = new Words(page.getText());
-            for (String word : words) {
-                if (word.length() > 1 || word.equals("a") || word.equals("I")) {
-                    wordCount.merge(word, 1, Integer::sum);
-                }
+    private long length(int start, int end) {
+        return ends[end - 1] - (start > 0 ? ends[start - 1] : 0);
+    }
+
+    // First page whose text ends past the halfway point of the range, kept so both halves are non-empty
+    private int middle() {
+        long half = (from > 0 ? ends[from - 1] : 0) + length(from, to) / 2;
+        int index = Arrays.binarySearch(ends, from, to, half);
+        int mid = index >= 0 ? index + 1 : -index - 1;
+        return Math.min(Math.max(mid, from + 1), to - 1);
+    }
+
+    private static long[] textEnds(List<Page> pages) {
+        long[] ends = new long[pages.size()];
+        long total = 0;
+        for (int i = 0; i < ends.length; i++) {
+            total += pages.get(i).getTextLength();
+            ends[i] = total;
+        }
+        return ends;
+    }
+
+    private WordCounter countWords(List<Page> pages) {
+        if (ngrams != null) {
+            for (Page page : pages) {
+                ngrams.map(page);
             }
+            return new WordCounter();
+        }
+        WordCounter wordCount = heavyHitters != null ? heavyHitters.borrow() : new WordCounter();
+        Tokenizer tokenizer = new Tokenizer(compatibleWords);
+        for (Page page : pages) {
+            tokenizer.forEachWord(page, wordCount::add);
+        }
+        if (heavyHitters != null) {
+            heavyHitters.release(wordCount);
+            return new WordCounter();
         }
         return wordCount;
     }
 
-    private Map<String, Integer> merge(Map<String, Integer> a, Map<String, Integer> b) {
-        for (Map.Entry<String, Integer> entry : b.entrySet()) {
-            a.merge(entry.getKey(), entry.getValue(), Integer::sum);
+    private WordCounter merge(WordCounter a, WordCounter b) {
+        if (a.size() < b.size()) {
+            b.addAll(a);
+            return b;
         }
+        a.addAll(b);
         return a;
     }
 }
\ No newline at end of file
@@ -0,0 +1,203 @@
+package common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/*  String -> int counter with open addressing (linear probing) over parallel arrays.
+    Words are looked up by char range with a cached String.hashCode()-compatible hash, so a
+    key String is only created the first time a word is seen and counts are incremented in
+    place without boxing. Measured on 1M distinct words it takes about 25 bytes per word
+    on top of the key Strings, against 56 bytes for HashMap<String, Integer>.merge.
+
+    Not thread-safe: one counter per thread, combined with addAll().
+*/
+public class WordCounter {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private String[] keys;
+    private int[] hashes;
+    private int[] counts;
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    public WordCounter() {
+        this(MIN_CAPACITY);
+    }
+
+    public WordCounter(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public void add(char[] chars, int offset, int length) {
+        add(chars, offset, length, 1);
+    }
+
+    public void add(char[] chars, int offset, int length, int count) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = slot(hash);
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (hashes[slot] == hash && equals(key, chars, offset, length)) {
+                counts[slot] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        insert(slot, new String(chars, offset, length), hash, count);
+    }
+
+    public int get(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        for (int slot = slot(hash); keys[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && equals(keys[slot], chars, offset, length)) {
+                return counts[slot];
+            }
+        }
+        return 0;
+    }
+
+    /*  Returns the value already stored for the word, or stores value and returns 0, so
+        with non-zero values the counter doubles as a word -> id dictionary.
+    */
+    public int putIfAbsent(char[] chars, int offset, int length, int value) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = slot(hash);
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (hashes[slot] == hash && equals(key, chars, offset, length)) {
+                return counts[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        insert(slot, new String(chars, offset, length), hash, value);
+        return 0;
+    }
+
+    public void add(String word, int count) {
+        add(word, word.hashCode(), count);
+    }
+
+    public int get(String word) {
+        int hash = word.hashCode();
+        for (int slot = slot(hash); keys[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && keys[slot].equals(word)) {
+                return counts[slot];
+            }
+        }
+        return 0;
+    }
+
+    /* Adds every count of other into this counter, reusing its keys and cached hashes. */
+    public void addAll(WordCounter other) {
+        String[] otherKeys = other.keys;
+        for (int i = 0; i < otherKeys.length; i++) {
+            if (otherKeys[i] != null) {
+                add(otherKeys[i], other.hashes[i], other.counts[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    public void forEach(ObjIntConsumer<String> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                action.accept(keys[i], counts[i]);
+            }
+        }
+    }
+
+    public Map<String, Integer> toMap() {
+        Map<String, Integer> map = new HashMap<>(size * 4 / 3 + 1);
+        forEach(map::put);
+        return map;
+    }
+
+    private void add(String word, int hash, int count) {
+        int slot = slot(hash);
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (hashes[slot] == hash && key.equals(word)) {
+                counts[slot] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        insert(slot, word, hash, count);
+    }
+
+    private void insert(int slot, String key, int hash, int count) {
+        keys[slot] = key;
+        hashes[slot] = hash;
+        counts[slot] = count;
+        if (++size > resizeAt) {
+            rehash();
+        }
+    }
+
+    private int slot(int hash) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ h >>> 16) & mask;
+    }
+
+    private void rehash() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldCounts = counts;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slot(oldHashes[i]);
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = capacity * 3 / 4;
+    }
+
+    private static boolean equals(String key, char[] chars, int offset, int length) {
+        if (key.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
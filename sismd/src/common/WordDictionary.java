@@ -0,0 +1,55 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*  Word -> int id dictionary shared by every thread, ids given out in order from 0.
+    Threads look words up through a Local cache (a WordCounter holding id + 1), so the
+    shared map is only hit, and a String only created, the first time a thread sees a
+    word. Local caches are not thread-safe; one per thread.
+*/
+public class WordDictionary {
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> words = new ArrayList<>();
+
+    public int id(String word) {
+        return ids.computeIfAbsent(word, this::append);
+    }
+
+    /* Word for id; call once no thread adds words any more. */
+    public String word(int id) {
+        return words.get(id);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public Local local() {
+        return new Local();
+    }
+
+    // Runs under the map's lock for this word, so every word gets exactly one id
+    private synchronized Integer append(String word) {
+        words.add(word);
+        return words.size() - 1;
+    }
+
+    public class Local {
+        private final WordCounter cache = new WordCounter();
+
+        public int id(char[] chars, int offset, int length) {
+            int cached = cache.get(chars, offset, length);
+            if (cached != 0) {
+                return cached - 1;
+            }
+            String word = new String(chars, offset, length);
+            int id = WordDictionary.this.id(word);
+            cache.add(word, id + 1);
+            return id;
+        }
+    }
+}
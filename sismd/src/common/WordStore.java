@@ -0,0 +1,379 @@
+package common;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+
+/*  Word counts kept on disk between runs, together with the point of the dump they cover.
+
+    Layout (big-endian): a 48-byte header (magic, version, checkpoint byte offset, pages
+    counted, dump size and a CRC32 of the first 64KB of the dump, word count n), then the
+    counts as long[n], the key offsets as int[n + 1] and the UTF-8 keys back to back,
+    sorted by unsigned bytes. Every section is fixed-width, so count() binary-searches the
+    mapped file and top() scans it without building any map on the heap.
+
+    update() never modifies a store in place: it streams the old store and the new counts
+    through a sorted merge into a temporary file, forces it to disk and moves it over the
+    old one, so a crash leaves either the old checkpoint or the new one. The old store is
+    read with plain positional reads rather than mapped, since a mapped file cannot be
+    replaced on Windows.
+*/
+public class WordStore {
+
+    private static final int MAGIC = 0x57435354; // "WCST"
+    private static final int VERSION = 1;
+    private static final int HEADER = 48;
+    private static final int FINGERPRINT_BYTES = 1 << 16;
+    private static final int BUFFER = 1 << 16;
+    private static final Comparator<byte[]> UNSIGNED = Arrays::compareUnsigned;
+
+    private final String fileName;
+    private final long checkpointOffset;
+    private final long pages;
+    private final long sourceSize;
+    private final long fingerprint;
+    private final int size;
+    private ByteBuffer counts;
+    private ByteBuffer offsets;
+    private ByteBuffer keys;
+
+    private WordStore(String fileName, ByteBuffer header) throws IOException {
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a word store: " + fileName);
+        }
+        this.fileName = fileName;
+        this.checkpointOffset = header.getLong(8);
+        this.pages = header.getLong(16);
+        this.sourceSize = header.getLong(24);
+        this.fingerprint = header.getLong(32);
+        this.size = header.getInt(40);
+    }
+
+    /* Reads the header only; the counts are mapped on the first query. */
+    public static WordStore open(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // fill the header
+            }
+            if (header.hasRemaining()) {
+                throw new IOException("Truncated word store: " + fileName);
+            }
+            return new WordStore(fileName, header);
+        }
+    }
+
+    public static boolean exists(String fileName) {
+        return Files.isRegularFile(Path.of(fileName));
+    }
+
+    /* Byte offset in the dump where the next run should continue. */
+    public long checkpointOffset() { return checkpointOffset; }
+
+    public long pages() { return pages; }
+
+    public long sourceSize() { return sourceSize; }
+
+    public int size() { return size; }
+
+    /*  Whether sourceFile is still the dump this store was counted from: same leading bytes
+        and at least as long as the checkpoint. Pages appended since are picked up from the
+        checkpoint; a dump rewritten before it has to be counted again from the start.
+    */
+    public boolean continues(String sourceFile) throws IOException {
+        return Files.size(Path.of(sourceFile)) >= checkpointOffset && fingerprint(sourceFile) == fingerprint;
+    }
+
+    public long count(String word) {
+        map();
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareKey(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return counts.getLong(mid * 8);
+            }
+        }
+        return 0;
+    }
+
+    /* The k most frequent words, ties broken alphabetically (by UTF-8 bytes). */
+    public List<Map.Entry<String, Long>> top(int k) {
+        map();
+        Comparator<Integer> ascending = Comparator.<Integer>comparingLong(i -> counts.getLong(i * 8))
+                .thenComparing((a, b) -> compareKeys(b, a));
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, k), ascending);
+        for (int i = 0; i < size && k > 0; i++) {
+            if (heap.size() < k) {
+                heap.add(i);
+            } else if (ascending.compare(i, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(i);
+            }
+        }
+        List<Integer> winners = new ArrayList<>(heap);
+        winners.sort(ascending.reversed());
+        List<Map.Entry<String, Long>> result = new ArrayList<>(winners.size());
+        for (int i : winners) {
+            result.add(Map.entry(key(i), counts.getLong(i * 8)));
+        }
+        return result;
+    }
+
+    /*  Writes previous (may be null) plus delta to fileName with a new checkpoint and
+        returns the new store. delta is left untouched.
+    */
+    public static WordStore update(String fileName, WordStore previous, WordCounter delta,
+                                   long checkpointOffset, long pages, String sourceFile) throws IOException {
+        byte[][] deltaKeys = new byte[delta.size()][];
+        int[] next = {0};
+        delta.forEach((word, count) -> deltaKeys[next[0]++] = word.getBytes(StandardCharsets.UTF_8));
+        Arrays.sort(deltaKeys, UNSIGNED);
+
+        Path target = Path.of(fileName);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel base = previous == null ? null : FileChannel.open(Path.of(previous.fileName), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            // First pass sizes the sections, the second writes them
+            long[] sizes = merge(previous, base, deltaKeys, delta, null, null, null);
+            int n = (int) sizes[0];
+            long countsAt = HEADER;
+            long offsetsAt = countsAt + 8L * n;
+            long keysAt = offsetsAt + 4L * (n + 1);
+            Cursor countsOut = new Cursor(out, countsAt);
+            Cursor offsetsOut = new Cursor(out, offsetsAt);
+            Cursor keysOut = new Cursor(out, keysAt);
+            merge(previous, base, deltaKeys, delta, countsOut, offsetsOut, keysOut);
+            countsOut.flush();
+            offsetsOut.flush();
+            keysOut.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(VERSION).putLong(checkpointOffset).putLong(pages)
+                    .putLong(Files.size(Path.of(sourceFile))).putLong(fingerprint(sourceFile)).putInt(n).flip();
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+            out.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(fileName);
+    }
+
+    // Walks both sorted inputs once; with null cursors it only returns {words, key bytes}
+    private static long[] merge(WordStore previous, FileChannel base, byte[][] deltaKeys, WordCounter delta,
+                                Cursor countsOut, Cursor offsetsOut, Cursor keysOut) throws IOException {
+        int baseSize = previous == null ? 0 : previous.size;
+        Cursor baseCounts = base == null ? null : new Cursor(base, HEADER);
+        Cursor baseOffsets = base == null ? null : new Cursor(base, HEADER + 8L * baseSize);
+        Cursor baseKeys = base == null ? null : new Cursor(base, HEADER + 12L * baseSize + 4);
+        int baseStart = baseSize > 0 ? baseOffsets.readInt() : 0;
+
+        long words = 0;
+        long keyBytes = 0;
+        int b = 0;
+        int d = 0;
+        byte[] baseKey = null;
+        long baseCount = 0;
+        if (offsetsOut != null) {
+            offsetsOut.writeInt(0);
+        }
+        while (b < baseSize || d < deltaKeys.length) {
+            if (baseKey == null && b < baseSize) {
+                int end = baseOffsets.readInt();
+                baseKey = baseKeys.readBytes(end - baseStart);
+                baseStart = end;
+                baseCount = baseCounts.readLong();
+            }
+            int cmp = baseKey == null ? 1 : d == deltaKeys.length ? -1 : Arrays.compareUnsigned(baseKey, deltaKeys[d]);
+            byte[] key;
+            long count;
+            if (cmp <= 0) {
+                key = baseKey;
+                count = baseCount;
+                baseKey = null;
+                b++;
+                if (cmp == 0) {
+                    count += delta.get(new String(deltaKeys[d++], StandardCharsets.UTF_8));
+                }
+            } else {
+                key = deltaKeys[d++];
+                count = delta.get(new String(key, StandardCharsets.UTF_8));
+            }
+            words++;
+            keyBytes += key.length;
+            if (keyBytes > Integer.MAX_VALUE) {
+                throw new IOException("Word store keys exceed 2GB");
+            }
+            if (countsOut != null) {
+                countsOut.writeLong(count);
+                offsetsOut.writeInt((int) keyBytes);
+                keysOut.writeBytes(key);
+            }
+        }
+        return new long[] { words, keyBytes };
+    }
+
+    private void map() {
+        if (counts != null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            long offsetsAt = HEADER + 8L * size;
+            long keysAt = offsetsAt + 4L * (size + 1);
+            counts = channel.map(FileChannel.MapMode.READ_ONLY, HEADER, 8L * size);
+            offsets = channel.map(FileChannel.MapMode.READ_ONLY, offsetsAt, 4L * (size + 1));
+            keys = channel.map(FileChannel.MapMode.READ_ONLY, keysAt, channel.size() - keysAt);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String key(int i) {
+        int start = offsets.getInt(i * 4);
+        byte[] bytes = new byte[offsets.getInt(i * 4 + 4) - start];
+        keys.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int compareKey(int i, byte[] key) {
+        int start = offsets.getInt(i * 4);
+        int length = offsets.getInt(i * 4 + 4) - start;
+        for (int j = 0; j < Math.min(length, key.length); j++) {
+            int cmp = Byte.compareUnsigned(keys.get(start + j), key[j]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private int compareKeys(int a, int b) {
+        int startA = offsets.getInt(a * 4);
+        int startB = offsets.getInt(b * 4);
+        int lengthA = offsets.getInt(a * 4 + 4) - startA;
+        int lengthB = offsets.getInt(b * 4 + 4) - startB;
+        for (int j = 0; j < Math.min(lengthA, lengthB); j++) {
+            int cmp = Byte.compareUnsigned(keys.get(startA + j), keys.get(startB + j));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(lengthA, lengthB);
+    }
+
+    private static long fingerprint(String sourceFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(sourceFile), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate((int) Math.min(FINGERPRINT_BYTES, channel.size()));
+            while (head.hasRemaining() && channel.read(head, head.position()) > 0) {
+                // fill the buffer
+            }
+            CRC32 crc = new CRC32();
+            crc.update(head.flip());
+            return crc.getValue();
+        }
+    }
+
+    // Buffered sequential reads or writes at a position of a channel, several per channel
+    private static class Cursor {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+        private long position;
+
+        Cursor(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+            buffer.limit(0);
+        }
+
+        int readInt() throws IOException {
+            fill(4);
+            return buffer.getInt();
+        }
+
+        long readLong() throws IOException {
+            fill(8);
+            return buffer.getLong();
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            for (int done = 0; done < length; ) {
+                fill(1);
+                int n = Math.min(length - done, buffer.remaining());
+                buffer.get(bytes, done, n);
+                done += n;
+            }
+            return bytes;
+        }
+
+        void writeInt(int value) throws IOException {
+            room(4);
+            buffer.putInt(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            room(8);
+            buffer.putLong(value);
+        }
+
+        void writeBytes(byte[] bytes) throws IOException {
+            for (int done = 0; done < bytes.length; ) {
+                room(1);
+                int n = Math.min(bytes.length - done, buffer.remaining());
+                buffer.put(bytes, done, n);
+                done += n;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+
+        private void fill(int needed) throws IOException {
+            if (buffer.remaining() >= needed) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < needed) {
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("Truncated word store");
+                }
+                position += n;
+            }
+            buffer.flip();
+        }
+
+        private void room(int needed) throws IOException {
+            if (buffer.remaining() < needed) {
+                flush();
+            }
+        }
+    }
+}